@@ -0,0 +1,251 @@
+package com.example.screenlogger;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * 流式的异常使用检测。
+ * 按本地小时（0-23）分别维护两个指数加权的均值和方差：使用时段时长，以及每小时的解锁次数。
+ * 每个使用时段结束、每次解锁时只读写一行模型，模型固定为 2 × 24 行，不回看历史事件。
+ * 新样本比该小时的均值高出 Z_THRESHOLD 个标准差时记为异常，写入异常表，供时间线标记。
+ */
+public class AnomalyDetector {
+
+    private static final String TAG = "AnomalyDetector";
+
+    // 每个小时的指数加权模型
+    public static final String TABLE_MODEL = "usage_model";
+    public static final String COLUMN_KIND = "kind";
+    public static final String COLUMN_HOUR = "hour";
+    public static final String COLUMN_SAMPLES = "samples";
+    public static final String COLUMN_MEAN = "mean";
+    public static final String COLUMN_VARIANCE = "variance";
+
+    // 当前小时的解锁计数，只有一行
+    public static final String TABLE_UNLOCK_WINDOW = "unlock_window";
+    public static final String COLUMN_WINDOW_HOUR = "window_hour";
+    public static final String COLUMN_WINDOW_COUNT = "window_count";
+    public static final String COLUMN_WINDOW_FLAGGED = "window_flagged";
+
+    // 检测到的异常
+    public static final String TABLE_ANOMALIES = "anomalies";
+    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_TIME = "time";
+    public static final String COLUMN_END_TIME = "end_time";
+    public static final String COLUMN_VALUE = "value";
+    public static final String COLUMN_EXPECTED = "expected";
+    public static final String COLUMN_SCORE = "score";
+
+    // 模型种类，同时也是异常的种类
+    public static final int KIND_SESSION = 0;
+    public static final int KIND_UNLOCK_RATE = 1;
+
+    // 权重：约等于只看最近20个样本
+    private static final double ALPHA = 0.1;
+    // 样本数不足时模型不可靠，只学习不判断
+    private static final int MIN_SAMPLES = 10;
+    private static final double Z_THRESHOLD = 3.0;
+    // 过短的使用时段和过少的解锁次数即使偏离均值也不算异常
+    private static final long MIN_SESSION_LENGTH = 10 * TimeBuckets.MINUTE_MILLIS;
+    private static final int MIN_UNLOCKS = 5;
+    // 长时间没有解锁时，最多补记一天的0次解锁
+    private static final int MAX_EMPTY_HOURS = 24;
+    // 标准差的下限（按种类），模型过于稳定时（如某小时几乎不解锁）一次小的偏离不至于被判为异常；
+    // 时长在对数空间中，0.5约为1.6倍
+    private static final double[] MIN_DEVIATION = {0.5, 1.0};
+
+    private AnomalyDetector() {
+    }
+
+    public static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MODEL + " (" +
+                COLUMN_KIND + " INTEGER NOT NULL, " +
+                COLUMN_HOUR + " INTEGER NOT NULL, " +
+                COLUMN_SAMPLES + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_MEAN + " REAL NOT NULL DEFAULT 0, " +
+                COLUMN_VARIANCE + " REAL NOT NULL DEFAULT 0, " +
+                "PRIMARY KEY (" + COLUMN_KIND + ", " + COLUMN_HOUR + ")" +
+                ");");
+        db.execSQL("CREATE TABLE " + TABLE_UNLOCK_WINDOW + " (" +
+                "_id INTEGER PRIMARY KEY, " +
+                COLUMN_WINDOW_HOUR + " INTEGER NOT NULL DEFAULT -1, " +
+                COLUMN_WINDOW_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_WINDOW_FLAGGED + " INTEGER NOT NULL DEFAULT 0" +
+                ");");
+        db.execSQL("INSERT INTO " + TABLE_UNLOCK_WINDOW + " (_id) VALUES (1)");
+        db.execSQL("CREATE TABLE " + TABLE_ANOMALIES + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COLUMN_TIME + " INTEGER NOT NULL, " +
+                COLUMN_END_TIME + " INTEGER NOT NULL, " +
+                COLUMN_KIND + " INTEGER NOT NULL, " +
+                COLUMN_VALUE + " REAL NOT NULL, " +
+                COLUMN_EXPECTED + " REAL NOT NULL, " +
+                COLUMN_SCORE + " REAL NOT NULL" +
+                ");");
+        db.execSQL("CREATE INDEX idx_anomalies_time ON " + TABLE_ANOMALIES + " (" + COLUMN_TIME + ");");
+    }
+
+    // 清空模型和异常记录
+    public static void clear(SQLiteDatabase db) {
+        db.delete(TABLE_MODEL, null, null);
+        db.delete(TABLE_ANOMALIES, null, null);
+        db.execSQL("UPDATE " + TABLE_UNLOCK_WINDOW + " SET " + COLUMN_WINDOW_HOUR + " = -1, " +
+                COLUMN_WINDOW_COUNT + " = 0, " + COLUMN_WINDOW_FLAGGED + " = 0");
+    }
+
+    // 一个使用时段结束，在写入使用时段的同一事务中调用
+    public static void recordSession(SQLiteDatabase db, long startTime, long endTime, int zoneOffset) {
+        long length = endTime - startTime;
+        if (length < 0) {
+            return;
+        }
+        // 时长分布严重右偏，在对数空间中建模
+        double value = Math.log1p(length / 1000.0);
+        int hour = TimeBuckets.hourOfDay(startTime, zoneOffset);
+        Model model = Model.load(db, KIND_SESSION, hour);
+        double score = model.score(value);
+        if (length >= MIN_SESSION_LENGTH && score > Z_THRESHOLD) {
+            insertAnomaly(db, startTime, endTime, KIND_SESSION, length, Math.expm1(model.mean) * 1000, score);
+        }
+        model.update(value);
+        model.save(db);
+    }
+
+    // 一次解锁，在写入解锁事件的同一事务中调用
+    public static void recordUnlock(SQLiteDatabase db, long time, int zoneOffset) {
+        // 自1970年起的本地小时编号
+        long hour = TimeBuckets.floorDiv(TimeBuckets.localMillis(time, zoneOffset), TimeBuckets.HOUR_MILLIS);
+
+        long windowHour = -1;
+        int count = 0;
+        boolean flagged = false;
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_WINDOW_HOUR + ", " + COLUMN_WINDOW_COUNT + ", " +
+                COLUMN_WINDOW_FLAGGED + " FROM " + TABLE_UNLOCK_WINDOW + " LIMIT 1", null);
+        if (cursor.moveToFirst()) {
+            windowHour = cursor.getLong(0);
+            count = cursor.getInt(1);
+            flagged = cursor.getInt(2) != 0;
+        }
+        cursor.close();
+
+        // 进入新的小时：把上一个小时的次数计入模型，中间没有解锁的小时计为0次
+        // （时钟被调回时仍计入当前小时）
+        if (hour > windowHour) {
+            if (windowHour >= 0) {
+                foldUnlockCount(db, windowHour, count);
+                for (long empty = Math.max(windowHour + 1, hour - MAX_EMPTY_HOURS); empty < hour; empty++) {
+                    foldUnlockCount(db, empty, 0);
+                }
+            }
+            windowHour = hour;
+            count = 0;
+            flagged = false;
+        }
+        count++;
+
+        // 本小时尚未结束，次数只会继续增加，已超过整小时的正常范围即可判为异常；每小时最多记一次
+        if (!flagged && count >= MIN_UNLOCKS) {
+            Model model = Model.load(db, KIND_UNLOCK_RATE, (int) TimeBuckets.floorMod(windowHour, 24));
+            double score = model.score(count);
+            if (score > Z_THRESHOLD) {
+                insertAnomaly(db, time, time, KIND_UNLOCK_RATE, count, model.mean, score);
+                flagged = true;
+            }
+        }
+
+        db.execSQL("UPDATE " + TABLE_UNLOCK_WINDOW + " SET " + COLUMN_WINDOW_HOUR + " = ?, " +
+                COLUMN_WINDOW_COUNT + " = ?, " + COLUMN_WINDOW_FLAGGED + " = ?",
+                new Object[]{windowHour, count, flagged ? 1 : 0});
+    }
+
+    private static void foldUnlockCount(SQLiteDatabase db, long hour, int count) {
+        Model model = Model.load(db, KIND_UNLOCK_RATE, (int) TimeBuckets.floorMod(hour, 24));
+        model.update(count);
+        model.save(db);
+    }
+
+    private static void insertAnomaly(SQLiteDatabase db, long time, long endTime, int kind, double value,
+                                      double expected, double score) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_TIME, time);
+        values.put(COLUMN_END_TIME, endTime);
+        values.put(COLUMN_KIND, kind);
+        values.put(COLUMN_VALUE, value);
+        values.put(COLUMN_EXPECTED, expected);
+        values.put(COLUMN_SCORE, score);
+        db.insert(TABLE_ANOMALIES, null, values);
+        Log.i(TAG, "Anomaly kind " + kind + " at " + time + ": " + value + " (expected " + expected +
+                ", z = " + score + ")");
+    }
+
+    // 读取 [fromTime, toTime) 内的异常时间，按时间升序
+    public static long[] loadTimes(SQLiteDatabase db, long fromTime, long toTime) {
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_TIME + " FROM " + TABLE_ANOMALIES + " WHERE " + COLUMN_TIME +
+                " >= ? AND " + COLUMN_TIME + " < ? ORDER BY " + COLUMN_TIME + " ASC",
+                new String[]{String.valueOf(fromTime), String.valueOf(toTime)});
+        long[] times = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            times[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return times;
+    }
+
+    // 一个小时的指数加权均值和方差
+    private static class Model {
+        final int kind;
+        final int hour;
+        int samples;
+        double mean;
+        double variance;
+
+        Model(int kind, int hour) {
+            this.kind = kind;
+            this.hour = hour;
+        }
+
+        static Model load(SQLiteDatabase db, int kind, int hour) {
+            Model model = new Model(kind, hour);
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_SAMPLES + ", " + COLUMN_MEAN + ", " + COLUMN_VARIANCE +
+                    " FROM " + TABLE_MODEL + " WHERE " + COLUMN_KIND + " = ? AND " + COLUMN_HOUR + " = ?",
+                    new String[]{String.valueOf(kind), String.valueOf(hour)});
+            if (cursor.moveToFirst()) {
+                model.samples = cursor.getInt(0);
+                model.mean = cursor.getDouble(1);
+                model.variance = cursor.getDouble(2);
+            }
+            cursor.close();
+            return model;
+        }
+
+        // 高出均值的标准差数，样本不足时返回0
+        double score(double value) {
+            if (samples < MIN_SAMPLES) {
+                return 0;
+            }
+            return (value - mean) / Math.max(Math.sqrt(variance), MIN_DEVIATION[kind]);
+        }
+
+        void update(double value) {
+            samples++;
+            // 样本不足时按算术平均学习，避免初始值0长期影响均值
+            double alpha = Math.max(ALPHA, 1.0 / samples);
+            double diff = value - mean;
+            double increment = alpha * diff;
+            mean += increment;
+            variance = (1 - alpha) * (variance + diff * increment);
+        }
+
+        void save(SQLiteDatabase db) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_KIND, kind);
+            values.put(COLUMN_HOUR, hour);
+            values.put(COLUMN_SAMPLES, samples);
+            values.put(COLUMN_MEAN, mean);
+            values.put(COLUMN_VARIANCE, variance);
+            db.insertWithOnConflict(TABLE_MODEL, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.screenlogger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 在后台线程执行数据库读写，读取结果交回主线程
+ */
+public class BackgroundLoader {
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    public interface Task<T> {
+        T load();
+    }
+
+    public interface Callback<T> {
+        void onLoaded(T result);
+    }
+
+    private BackgroundLoader() {
+    }
+
+    // traceName会作为systrace中的区段名，便于在启动跟踪中区分各个Tab的加载耗时
+    public static <T> void load(final String traceName, final Task<T> task, final Callback<T> callback) {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Trace.beginSection(traceName);
+                final T result;
+                try {
+                    result = task.load();
+                } finally {
+                    Trace.endSection();
+                }
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLoaded(result);
+                    }
+                });
+            }
+        });
+    }
+
+    // 在后台线程执行不需要返回结果的任务
+    public static void execute(final String traceName, final Runnable runnable) {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Trace.beginSection(traceName);
+                try {
+                    runnable.run();
+                } finally {
+                    Trace.endSection();
+                }
+            }
+        });
+    }
+}
@@ -3,6 +3,7 @@ package com.example.screenlogger;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.util.Log;
 
 public class BootReceiver extends BroadcastReceiver {
@@ -13,6 +14,11 @@ public class BootReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         if (intent != null && Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
             Log.d(TAG, "Boot completed, starting service");
+            // 记录实际开机时刻，而不是收到广播的时刻；开机时elapsedRealtime为0
+            long bootTime = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+            DatabaseHelper.getInstance(context).insertScreenEvent(DatabaseHelper.EVENT_BOOT, bootTime, 0,
+                    TimeBuckets.zoneOffset(bootTime));
+            TodayCounter.onBoot(context);
             // 设备启动完成后启动服务
             Intent serviceIntent = new Intent(context, ScreenStateService.class);
             context.startService(serviceIntent);
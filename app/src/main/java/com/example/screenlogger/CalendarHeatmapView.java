@@ -0,0 +1,79 @@
+package com.example.screenlogger;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 日历热力图，每列为一周、每行为星期几，颜色深浅表示当天的亮屏分钟数。
+ * 数据直接来自内存中的分钟位图，每个格子只需做一次popcount。
+ */
+public class CalendarHeatmapView extends View {
+    // 颜色达到最深时对应的亮屏分钟数
+    private static final int FULL_SCALE_MINUTES = 8 * 60;
+
+    private MinuteBitmap bitmap;
+    private Paint cellPaint;
+
+    public CalendarHeatmapView(@NonNull Context context) {
+        super(context);
+        init();
+    }
+
+    public CalendarHeatmapView(@NonNull Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public CalendarHeatmapView(@NonNull Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init();
+    }
+
+    private void init() {
+        cellPaint = new Paint();
+        cellPaint.setStyle(Paint.Style.FILL);
+    }
+
+    public void setMinuteBitmap(MinuteBitmap bitmap) {
+        this.bitmap = bitmap;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (bitmap == null) {
+            return;
+        }
+
+        int firstDay = bitmap.getFirstDay();
+        int lastDay = firstDay + bitmap.getDayCount() - 1;
+        int firstWeekday = TimeBuckets.weekday(firstDay);
+        int weekCount = (firstWeekday + bitmap.getDayCount() + 6) / 7;
+
+        float cellSize = Math.min(getWidth() / (float) weekCount, getHeight() / 7f);
+        float gap = Math.max(1, cellSize / 8);
+
+        for (int day = firstDay; day <= lastDay; day++) {
+            int index = day - firstDay + firstWeekday;
+            int week = index / 7;
+            int weekday = index % 7;
+
+            int minutes = bitmap.countDay(day);
+            int alpha = 20 + 235 * Math.min(minutes, FULL_SCALE_MINUTES) / FULL_SCALE_MINUTES;
+            cellPaint.setColor(Color.argb(alpha, 0, 150, 0));
+
+            float left = week * cellSize;
+            float top = weekday * cellSize;
+            canvas.drawRect(left + gap / 2, top + gap / 2, left + cellSize - gap / 2, top + cellSize - gap / 2, cellPaint);
+        }
+    }
+}
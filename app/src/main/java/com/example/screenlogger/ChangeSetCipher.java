@@ -0,0 +1,299 @@
+package com.example.screenlogger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 增量文件的分块认证加密。
+ * 文件头为魔数(4字节)，之后是若干块，每块为 长度(4字节) + IV(12字节) + AES/GCM密文（含16字节认证标签）。
+ * 每块最多BLOCK_SIZE字节原文，读写时只缓存一块，不需要把整个文件读入内存。
+ * 块序号和是否为最后一块作为附加认证数据，块被篡改、调换、删除或文件被截断时读取抛出IOException。
+ * 密钥由同步口令和同步组的随机盐经PBKDF2派生；盐保存在共享目录中，同一组的设备读取相同的盐，
+ * 用相同的口令得到相同的密钥，不同的组之间不能共用预先计算的字典。
+ * 派生只在设置口令时进行一次，之后SyncManager只保存经Android Keystore包装的密钥，不保存口令。
+ * 没有魔数的文件按明文读取，仅在没有设置口令时接受。
+ */
+class ChangeSetCipher {
+
+    private static final byte[] MAGIC = {'S', 'L', 'C', '2'};
+    // 每块的原文长度，约为数百个事件
+    static final int BLOCK_SIZE = 16 * 1024;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    // 长度字段的最高位表示最后一块
+    private static final int FINAL_FLAG = 0x80000000;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    // 每个同步组的随机盐长度
+    static final int SALT_LENGTH = 16;
+    private static final int ITERATIONS = 100000;
+    private static final int KEY_BITS = 128;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private ChangeSetCipher() {
+    }
+
+    // 为新的同步组生成随机盐
+    static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    // 由口令和同步组的盐派生密钥，耗时较长，需在后台线程调用；PBKDF2WithHmacSHA256需要API 26
+    static SecretKey deriveKey(String passphrase, byte[] salt) throws GeneralSecurityException {
+        if (salt.length != SALT_LENGTH) {
+            throw new GeneralSecurityException("Invalid sync salt length " + salt.length);
+        }
+        PBEKeySpec spec = new PBEKeySpec(passphrase.toCharArray(), salt, ITERATIONS, KEY_BITS);
+        try {
+            byte[] encoded = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            return new SecretKeySpec(encoded, "AES");
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    // 写入文件头，返回加密后写入out的流；关闭返回的流时写入最后一块
+    static OutputStream encrypt(OutputStream out, SecretKey key) throws IOException {
+        out.write(MAGIC);
+        return new BlockOutputStream(out, key);
+    }
+
+    // 有加密文件头时返回解密流，否则按明文返回；
+    // 加密文件但没有设置口令、或设置了口令但文件是明文时抛出IOException
+    static InputStream decrypt(InputStream in, SecretKey key) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(MAGIC.length);
+        byte[] magic = new byte[MAGIC.length];
+        int read = readFully(buffered, magic);
+        if (read == MAGIC.length && Arrays.equals(magic, MAGIC)) {
+            if (key == null) {
+                throw new IOException("Change set is encrypted but no sync passphrase is set");
+            }
+            return new BlockInputStream(buffered, key);
+        }
+        // 设置口令后不接受明文文件，否则任何人都可以向共享目录写入伪造的记录
+        if (key != null) {
+            throw new IOException("Plaintext change set rejected because a sync passphrase is set");
+        }
+        buffered.reset();
+        return buffered;
+    }
+
+    // 块序号和最后一块标记参与认证
+    private static byte[] associatedData(long blockIndex, boolean last) {
+        byte[] aad = new byte[MAGIC.length + 9];
+        System.arraycopy(MAGIC, 0, aad, 0, MAGIC.length);
+        for (int i = 0; i < 8; i++) {
+            aad[MAGIC.length + i] = (byte) (blockIndex >>> (56 - 8 * i));
+        }
+        aad[MAGIC.length + 8] = (byte) (last ? 1 : 0);
+        return aad;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static Cipher newCipher() throws IOException {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot initialize change set cipher", e);
+        }
+    }
+
+    // 攒满一块原文后加密写出
+    private static class BlockOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final SecretKey key;
+        private final Cipher cipher;
+        private final byte[] buffer = new byte[BLOCK_SIZE];
+        private final byte[] iv = new byte[IV_LENGTH];
+        private int count;
+        private long blockIndex;
+        private boolean closed;
+
+        BlockOutputStream(OutputStream out, SecretKey key) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.key = key;
+            this.cipher = newCipher();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == BLOCK_SIZE) {
+                writeBlock(false);
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == BLOCK_SIZE) {
+                    writeBlock(false);
+                }
+                int chunk = Math.min(length, BLOCK_SIZE - count);
+                System.arraycopy(bytes, offset, buffer, count, chunk);
+                count += chunk;
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        // 不在这里切块，块的边界只由数据量决定
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                writeBlock(true);
+            } finally {
+                out.close();
+            }
+        }
+
+        private void writeBlock(boolean last) throws IOException {
+            byte[] encrypted;
+            RANDOM.nextBytes(iv);
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+                cipher.updateAAD(associatedData(blockIndex, last));
+                encrypted = cipher.doFinal(buffer, 0, count);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cannot encrypt change set", e);
+            }
+            out.writeInt(last ? encrypted.length | FINAL_FLAG : encrypted.length);
+            out.write(iv);
+            out.write(encrypted);
+            blockIndex++;
+            count = 0;
+        }
+    }
+
+    // 逐块读取、认证并解密
+    private static class BlockInputStream extends InputStream {
+        private final DataInputStream in;
+        private final SecretKey key;
+        private final Cipher cipher;
+        private final byte[] iv = new byte[IV_LENGTH];
+        private byte[] encrypted = new byte[0];
+        private byte[] block = new byte[0];
+        private int position;
+        private int limit;
+        private long blockIndex;
+        private boolean finished;
+
+        BlockInputStream(InputStream in, SecretKey key) throws IOException {
+            this.in = new DataInputStream(in);
+            this.key = key;
+            this.cipher = newCipher();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !nextBlock()) {
+                return -1;
+            }
+            return block[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (position == limit && !nextBlock()) {
+                return -1;
+            }
+            int chunk = Math.min(length, limit - position);
+            System.arraycopy(block, position, bytes, offset, chunk);
+            position += chunk;
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        // 读取下一块非空的原文，已读完最后一块时返回false
+        private boolean nextBlock() throws IOException {
+            while (!finished) {
+                int header;
+                try {
+                    header = in.readInt();
+                } catch (EOFException e) {
+                    throw new IOException("Truncated change set", e);
+                }
+                boolean last = (header & FINAL_FLAG) != 0;
+                int length = header & ~FINAL_FLAG;
+                if (length < TAG_BITS / 8 || length > BLOCK_SIZE + TAG_BITS / 8) {
+                    throw new IOException("Invalid change set block length " + length);
+                }
+                if (encrypted.length < length) {
+                    encrypted = new byte[length];
+                }
+                try {
+                    in.readFully(iv);
+                    in.readFully(encrypted, 0, length);
+                } catch (EOFException e) {
+                    throw new IOException("Truncated change set", e);
+                }
+                try {
+                    cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+                    cipher.updateAAD(associatedData(blockIndex, last));
+                    block = cipher.doFinal(encrypted, 0, length);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("Change set authentication failed, wrong sync passphrase?", e);
+                }
+                blockIndex++;
+                position = 0;
+                limit = block.length;
+                if (last) {
+                    finished = true;
+                    if (in.read() >= 0) {
+                        throw new IOException("Unexpected data after the last change set block");
+                    }
+                }
+                if (limit > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.screenlogger;
+
+import android.database.Cursor;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 基于Cursor的流式迭代器，逐行读取查询结果而不是一次性加载到列表中。
+ * 遍历结束后会自动关闭Cursor；提前结束遍历时调用者需要手动调用close()。
+ */
+public abstract class CursorIterator<T> implements Iterator<T>, Closeable {
+    protected final Cursor cursor;
+    private boolean hasNext;
+
+    protected CursorIterator(Cursor cursor) {
+        this.cursor = cursor;
+        this.hasNext = cursor.moveToFirst();
+        if (!hasNext) {
+            cursor.close();
+        }
+    }
+
+    // 从当前行读取一个对象
+    protected abstract T read(Cursor cursor);
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+        T item = read(cursor);
+        hasNext = cursor.moveToNext();
+        if (!hasNext) {
+            cursor.close();
+        }
+        return item;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        hasNext = false;
+        if (!cursor.isClosed()) {
+            cursor.close();
+        }
+    }
+}
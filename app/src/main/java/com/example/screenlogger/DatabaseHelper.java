@@ -2,113 +2,498 @@ package com.example.screenlogger;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "DatabaseHelper";
     private static final String DATABASE_NAME = "screen_logger.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 9;
+
+    private static final String TIMESTAMP_PATTERN = "yyyy-MM-dd HH:mm:ss";
 
     // 表名和列名
     public static final String TABLE_NAME = "screen_events";
     public static final String COLUMN_ID = "_id";
     public static final String COLUMN_EVENT_TYPE = "event_type";
     public static final String COLUMN_TIMESTAMP = "timestamp";
+    public static final String COLUMN_DEVICE_ID = "device_id";
+    // UTC毫秒时间，排序和范围查询都使用这一列；timestamp只保留记录时的本地时间用于显示
+    public static final String COLUMN_TIME = "time";
+    // 记录时的SystemClock.elapsedRealtime()，不受调整系统时间影响，未知时为-1
+    public static final String COLUMN_ELAPSED_REALTIME = "elapsed_realtime";
+    // 记录时的时区偏移（毫秒），本地时间 = time + zone_offset
+    public static final String COLUMN_ZONE_OFFSET = "zone_offset";
+
+    // 本机事件的device_id为空字符串，其他设备合并进来的事件使用其设备ID
+    public static final String LOCAL_DEVICE = "";
+    public static final String LOCAL_EVENTS = COLUMN_DEVICE_ID + " = ''";
+
+    // 本机的使用时段表（由亮屏/熄屏事件配对得到，时间为毫秒时间戳，zone_offset为亮屏时的时区偏移）
+    public static final String TABLE_SESSIONS = "screen_sessions";
+    public static final String COLUMN_START_TIME = "start_time";
+    public static final String COLUMN_END_TIME = "end_time";
+    public static final String COLUMN_DURATION = "duration";
+    // 使用时段内是否解锁过（区分真正使用和只在锁屏界面看了一眼）
+    public static final String COLUMN_UNLOCKED = "unlocked";
+
+    // 事件类型代码表
+    public static final String TABLE_EVENT_TYPES = "event_types";
+    public static final String COLUMN_CODE = "code";
+    public static final String COLUMN_NAME = "name";
 
-    // 事件类型
-    public static final String EVENT_SCREEN_ON = "SCREEN_ON";
-    public static final String EVENT_SCREEN_OFF = "SCREEN_OFF";
+    // 事件类型，以整数代码存储
+    public static final int EVENT_UNKNOWN = 0;
+    public static final int EVENT_SCREEN_ON = 1;
+    public static final int EVENT_SCREEN_OFF = 2;
+    public static final int EVENT_USER_PRESENT = 3;
+    public static final int EVENT_BOOT = 4;
+    public static final int EVENT_SHUTDOWN = 5;
+    public static final int EVENT_POWER_CONNECTED = 6;
+    public static final int EVENT_POWER_DISCONNECTED = 7;
+    public static final int EVENT_DOZE_ENTER = 8;
+    public static final int EVENT_DOZE_EXIT = 9;
+
+    // 下标为事件类型代码
+    private static final String[] EVENT_TYPE_NAMES = {
+            "UNKNOWN", "SCREEN_ON", "SCREEN_OFF", "USER_PRESENT", "BOOT", "SHUTDOWN",
+            "POWER_CONNECTED", "POWER_DISCONNECTED", "DOZE_ENTER", "DOZE_EXIT"
+    };
+
+    // 参与使用时段配对的事件，关机时不一定会收到熄屏广播，关机也会结束使用时段；
+    // 开机事件丢弃之前未结束的亮屏（异常重启时没有关机事件）
+    public static final String SESSION_EVENT_TYPES = "(" + EVENT_SCREEN_ON + ", " + EVENT_SCREEN_OFF + ", " +
+            EVENT_SHUTDOWN + ", " + EVENT_BOOT + ")";
 
     private static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" +
             COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-            COLUMN_EVENT_TYPE + " TEXT NOT NULL, " +
-            COLUMN_TIMESTAMP + " TEXT NOT NULL" +
+            COLUMN_EVENT_TYPE + " INTEGER NOT NULL, " +
+            COLUMN_TIMESTAMP + " TEXT NOT NULL, " +
+            COLUMN_DEVICE_ID + " TEXT NOT NULL DEFAULT '', " +
+            COLUMN_TIME + " INTEGER NOT NULL DEFAULT 0, " +
+            COLUMN_ELAPSED_REALTIME + " INTEGER NOT NULL DEFAULT -1, " +
+            COLUMN_ZONE_OFFSET + " INTEGER NOT NULL DEFAULT 0" +
             ");";
 
-    public DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    private static final String CREATE_EVENTS_TIME_INDEX = "CREATE INDEX IF NOT EXISTS idx_events_time ON " +
+            TABLE_NAME + " (" + COLUMN_TIME + ", " + COLUMN_EVENT_TYPE + ");";
+
+    // 版本7之前按本地时间字符串排序使用的索引
+    private static final String CREATE_EVENTS_TIMESTAMP_INDEX = "CREATE INDEX IF NOT EXISTS idx_events_timestamp ON " +
+            TABLE_NAME + " (" + COLUMN_TIMESTAMP + ", " + COLUMN_EVENT_TYPE + ");";
+
+    // 其他设备的事件按 (设备, 毫秒时间, 类型) 唯一，合并时据此去重；
+    // 本机事件不受约束，同一秒内真实发生的亮屏、熄屏、亮屏都会被记录
+    private static final String CREATE_EVENTS_REMOTE_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS idx_events_remote ON " +
+            TABLE_NAME + " (" + COLUMN_DEVICE_ID + ", " + COLUMN_TIME + ", " + COLUMN_EVENT_TYPE + ")" +
+            " WHERE " + COLUMN_DEVICE_ID + " != '';";
+
+    private static final String CREATE_SESSIONS_TABLE = "CREATE TABLE " + TABLE_SESSIONS + " (" +
+            COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            COLUMN_START_TIME + " INTEGER NOT NULL, " +
+            COLUMN_END_TIME + " INTEGER NOT NULL, " +
+            COLUMN_DURATION + " INTEGER NOT NULL, " +
+            COLUMN_UNLOCKED + " INTEGER NOT NULL DEFAULT 0, " +
+            COLUMN_ZONE_OFFSET + " INTEGER NOT NULL DEFAULT 0" +
+            ");";
+
+    private static final String CREATE_EVENT_TYPES_TABLE = "CREATE TABLE " + TABLE_EVENT_TYPES + " (" +
+            COLUMN_CODE + " INTEGER PRIMARY KEY, " +
+            COLUMN_NAME + " TEXT NOT NULL UNIQUE" +
+            ");";
+
+    private static final String CREATE_SESSIONS_START_INDEX = "CREATE INDEX IF NOT EXISTS idx_sessions_start ON " +
+            TABLE_SESSIONS + " (" + COLUMN_START_TIME + ");";
+
+    private static final String CREATE_SESSIONS_DURATION_INDEX = "CREATE INDEX IF NOT EXISTS idx_sessions_duration ON " +
+            TABLE_SESSIONS + " (" + COLUMN_DURATION + ");";
+
+    // 升级后待重建派生数据的标记，与备份的ScreenLoggerPrefs分开
+    private static final String PREFS_NAME = "ScreenLoggerDatabase";
+    private static final String KEY_REBUILD_PENDING = "rebuild_pending_";
+
+    // 重建派生数据使用单独的后台线程，不占用各个Tab加载数据的BackgroundLoader
+    private static final ExecutorService REBUILD_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private static DatabaseHelper instance;
+
+    private final Context context;
+    private final Object rebuildLock = new Object();
+    // 本次进程中是否已安排了待执行的重建
+    private boolean rebuildScheduled;
+
+    // 整个进程共享一个实例，避免每次读写都重新打开数据库
+    public static synchronized DatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new DatabaseHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // 替换共享实例，供测试记录界面对数据库的访问；传null时下次调用getInstance重新创建
+    static synchronized void setInstance(DatabaseHelper helper) {
+        instance = helper;
+    }
+
+    private DatabaseHelper(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    // name为null时创建内存数据库，供不经过单例的独立实例使用（如在JVM上验证迁移）
+    DatabaseHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        this.context = context;
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createEventTypesTable(db);
         db.execSQL(CREATE_TABLE);
+        db.execSQL(CREATE_EVENTS_TIME_INDEX);
+        db.execSQL(CREATE_EVENTS_REMOTE_INDEX);
+        createSessionsTable(db);
+        UsageSummaries.createTables(db);
+        MinuteBitmapStore.createTable(db);
+        AnomalyDetector.createTables(db);
         Log.d(TAG, "Database table created");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // 如果数据库版本更新，删除旧表并创建新表
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
-        onCreate(db);
+        // 逐版本迁移表结构，保留已有的事件记录；派生数据依赖最新的表结构，最后统一重建
+        boolean rebuildDerived = false;
+        if (oldVersion < 2) {
+            db.execSQL(CREATE_EVENTS_TIMESTAMP_INDEX);
+            createSessionsTable(db);
+            rebuildDerived = true;
+        }
+        if (oldVersion < 3) {
+            UsageSummaries.createTables(db);
+            rebuildDerived = true;
+        }
+        if (oldVersion < 4) {
+            MinuteBitmapStore.createTable(db);
+            rebuildDerived = true;
+        }
+        if (oldVersion < 5) {
+            // 去重用的唯一索引在版本9的迁移中建立，那时毫秒时间已经换算好
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_DEVICE_ID + " TEXT NOT NULL DEFAULT ''");
+        }
+        if (oldVersion < 6) {
+            migrateEventTypeCodes(db);
+            if (oldVersion >= 2) {
+                // 旧数据中没有记录解锁事件，已有的使用时段视为解锁使用过
+                db.execSQL("ALTER TABLE " + TABLE_SESSIONS + " ADD COLUMN " + COLUMN_UNLOCKED +
+                        " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("UPDATE " + TABLE_SESSIONS + " SET " + COLUMN_UNLOCKED + " = 1");
+            }
+        }
+        if (oldVersion < 7) {
+            // 版本6之前的迁移已按最新结构重建了事件表
+            if (oldVersion >= 6) {
+                db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_TIME + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_ELAPSED_REALTIME +
+                        " INTEGER NOT NULL DEFAULT -1");
+                db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_ZONE_OFFSET +
+                        " INTEGER NOT NULL DEFAULT 0");
+            }
+            if (oldVersion >= 2) {
+                db.execSQL("ALTER TABLE " + TABLE_SESSIONS + " ADD COLUMN " + COLUMN_ZONE_OFFSET +
+                        " INTEGER NOT NULL DEFAULT 0");
+            }
+            migrateLocalTimes(db);
+        }
+        if (oldVersion < 8) {
+            // 异常检测模型只从之后结束的使用时段开始学习，不回放历史
+            AnomalyDetector.createTables(db);
+        }
+        if (oldVersion < 9) {
+            // 旧的唯一索引按秒级时间戳约束了本机事件，同一秒内的真实事件会被丢弃；改为只约束其他设备的事件。
+            // 只删除其他设备完全相同（同一毫秒）的重复记录，本机历史不受影响
+            db.execSQL("DROP INDEX IF EXISTS idx_events_device");
+            db.execSQL("DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_DEVICE_ID + " != '' AND " + COLUMN_ID +
+                    " NOT IN (SELECT MIN(" + COLUMN_ID + ") FROM " + TABLE_NAME + " WHERE " + COLUMN_DEVICE_ID +
+                    " != '' GROUP BY " + COLUMN_DEVICE_ID + ", " + COLUMN_TIME + ", " + COLUMN_EVENT_TYPE + ")");
+            db.execSQL(CREATE_EVENTS_REMOTE_INDEX);
+        }
+        if (rebuildDerived) {
+            // 重建要扫描全部历史，不在升级时执行（首次打开数据库的可能是主线程上的广播接收器），
+            // 只记下待重建，由onOpen交给后台线程
+            setRebuildPending(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        synchronized (this) {
+            if (rebuildScheduled || !isRebuildPending()) {
+                return;
+            }
+            rebuildScheduled = true;
+        }
+        REBUILD_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                Trace.beginSection("DatabaseHelper.rebuildSessions");
+                try {
+                    runPendingRebuild();
+                } finally {
+                    Trace.endSection();
+                }
+            }
+        });
+    }
+
+    // 执行升级时记下的派生数据重建，返回是否执行了重建。
+    // 不能在this上同步：SQLiteOpenHelper打开数据库时也在this上同步，重建期间会挡住所有getWritableDatabase()
+    boolean runPendingRebuild() {
+        synchronized (rebuildLock) {
+            if (!isRebuildPending()) {
+                return false;
+            }
+            rebuildSessions();
+            setRebuildPending(false);
+            return true;
+        }
+    }
+
+    // 待重建标记按数据库名区分；内存数据库没有名字，也不会被升级
+    private boolean isRebuildPending() {
+        return getDatabaseName() != null
+                && getRebuildPrefs().getBoolean(KEY_REBUILD_PENDING + getDatabaseName(), false);
+    }
+
+    private void setRebuildPending(boolean pending) {
+        if (getDatabaseName() == null) {
+            return;
+        }
+        // 标记必须在升级事务提交前落盘，否则进程被杀后会漏掉重建
+        getRebuildPrefs().edit().putBoolean(KEY_REBUILD_PENDING + getDatabaseName(), pending).commit();
+    }
+
+    private SharedPreferences getRebuildPrefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private void createEventTypesTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_EVENT_TYPES_TABLE);
+        for (int code = 0; code < EVENT_TYPE_NAMES.length; code++) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_CODE, code);
+            values.put(COLUMN_NAME, EVENT_TYPE_NAMES[code]);
+            db.insert(TABLE_EVENT_TYPES, null, values);
+        }
+    }
+
+    // 事件类型由文本改为整数代码：SQLite不支持修改列类型，重建事件表并复制数据
+    private void migrateEventTypeCodes(SQLiteDatabase db) {
+        createEventTypesTable(db);
+        String newTable = TABLE_NAME + "_new";
+        db.execSQL(CREATE_TABLE.replaceFirst(TABLE_NAME, newTable));
+        db.execSQL("INSERT INTO " + newTable + " (" + COLUMN_ID + ", " + COLUMN_EVENT_TYPE + ", " +
+                COLUMN_TIMESTAMP + ", " + COLUMN_DEVICE_ID + ") SELECT e." + COLUMN_ID + ", " +
+                "COALESCE(t." + COLUMN_CODE + ", " + EVENT_UNKNOWN + "), e." + COLUMN_TIMESTAMP + ", e." +
+                COLUMN_DEVICE_ID + " FROM " + TABLE_NAME + " e LEFT JOIN " + TABLE_EVENT_TYPES + " t ON t." +
+                COLUMN_NAME + " = e." + COLUMN_EVENT_TYPE);
+        db.execSQL("DROP TABLE " + TABLE_NAME);
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + TABLE_NAME);
+        db.execSQL(CREATE_EVENTS_TIME_INDEX);
+    }
+
+    // 旧记录只有本地时间字符串，按设备当前时区换算成UTC时间（SQLite的utc/localtime修饰符使用系统时区）；
+    // 旧记录没有单调时钟，elapsed_realtime保持-1
+    private void migrateLocalTimes(SQLiteDatabase db) {
+        db.execSQL("UPDATE " + TABLE_NAME + " SET " +
+                COLUMN_TIME + " = CAST(strftime('%s', " + COLUMN_TIMESTAMP + ", 'utc') AS INTEGER) * 1000, " +
+                COLUMN_ZONE_OFFSET + " = (CAST(strftime('%s', " + COLUMN_TIMESTAMP + ") AS INTEGER) - " +
+                "CAST(strftime('%s', " + COLUMN_TIMESTAMP + ", 'utc') AS INTEGER)) * 1000");
+        db.execSQL("UPDATE " + TABLE_SESSIONS + " SET " + COLUMN_ZONE_OFFSET + " = (CAST(strftime('%s', " +
+                COLUMN_START_TIME + " / 1000, 'unixepoch', 'localtime') AS INTEGER) - " +
+                COLUMN_START_TIME + " / 1000) * 1000");
+        db.execSQL("DROP INDEX IF EXISTS idx_events_timestamp");
+        db.execSQL(CREATE_EVENTS_TIME_INDEX);
+    }
+
+    private void createSessionsTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_SESSIONS_TABLE);
+        db.execSQL(CREATE_SESSIONS_START_INDEX);
+        db.execSQL(CREATE_SESSIONS_DURATION_INDEX);
+    }
+
+    // 重建用的使用时段影子表，不建索引，替换后再建
+    static void createSessionsShadowTable(SQLiteDatabase db, String suffix) {
+        db.execSQL(CREATE_SESSIONS_TABLE.replaceFirst(TABLE_SESSIONS, TABLE_SESSIONS + suffix));
+    }
+
+    static void dropSessionsShadowTable(SQLiteDatabase db, String suffix) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SESSIONS + suffix);
+    }
+
+    // 用重建好的影子表替换使用时段表，原表的索引随原表删除，在新表上重建
+    static void replaceSessionsTable(SQLiteDatabase db, String suffix) {
+        db.execSQL("DROP TABLE " + TABLE_SESSIONS);
+        db.execSQL("ALTER TABLE " + TABLE_SESSIONS + suffix + " RENAME TO " + TABLE_SESSIONS);
+        db.execSQL(CREATE_SESSIONS_START_INDEX);
+        db.execSQL(CREATE_SESSIONS_DURATION_INDEX);
     }
 
-    // 插入一条屏幕事件记录
-    public void insertScreenEvent(String eventType, String timestamp) {
+    // 根据全部历史事件重新生成使用时段表及其派生的汇总和位图（升级后或会话推导逻辑变化后调用）。
+    // 写入影子表并分批提交，最后在一个短事务中替换原表（见SessionBackfill），期间照常记录事件、读取原有数据；
+    // 中途失败时保留原有数据，下次重建时重新开始。扫描全部历史，需在后台线程调用
+    public int rebuildSessions() {
+        int count = SessionBackfill.rebuild(this.getWritableDatabase());
+        // 替换的事务提交后再丢弃缓存
+        MinuteBitmapStore.invalidateCache();
+        TimelineCache.invalidate();
+        ScreenLoggerProvider.notifyChange(context, ScreenLoggerProvider.CONTENT_URI);
+        return count;
+    }
+
+    // 以当前时间插入一条屏幕事件记录
+    public void insertScreenEvent(int eventType) {
+        long time = System.currentTimeMillis();
+        insertScreenEvent(eventType, time, SystemClock.elapsedRealtime(), TimeBuckets.zoneOffset(time));
+    }
+
+    // 插入一条屏幕事件记录，elapsedRealtime未知时传-1
+    public void insertScreenEvent(int eventType, long time, long elapsedRealtime, int zoneOffset) {
         SQLiteDatabase db = this.getWritableDatabase();
+        String timestamp = formatTimestamp(time);
         ContentValues values = new ContentValues();
         values.put(COLUMN_EVENT_TYPE, eventType);
         values.put(COLUMN_TIMESTAMP, timestamp);
-        
-        long id = db.insert(TABLE_NAME, null, values);
-        db.close();
-        Log.d(TAG, "Inserted screen event: " + eventType + " at " + timestamp + " with ID: " + id);
+        values.put(COLUMN_DEVICE_ID, LOCAL_DEVICE);
+        values.put(COLUMN_TIME, time);
+        values.put(COLUMN_ELAPSED_REALTIME, elapsedRealtime);
+        values.put(COLUMN_ZONE_OFFSET, zoneOffset);
+
+        long id;
+        Session closedSession = null;
+        db.beginTransaction();
+        try {
+            // 熄屏（或关机）事件与上一条亮屏事件配对，增量维护使用时段表
+            if (eventType == EVENT_SCREEN_OFF || eventType == EVENT_SHUTDOWN) {
+                closedSession = closeSession(db, time, elapsedRealtime);
+            }
+            // 写入失败时抛出异常，整个事务（包括上面生成的使用时段）一起回滚
+            id = db.insertOrThrow(TABLE_NAME, null, values);
+            if (eventType == EVENT_USER_PRESENT) {
+                UsageSummaries.recordUnlock(db, time, zoneOffset);
+                AnomalyDetector.recordUnlock(db, time, zoneOffset);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.d(TAG, "Inserted screen event: " + getEventTypeName(eventType) + " at " + timestamp + " with ID: " + id);
+
+        // 内存中的分钟位图只在事务提交后更新
+        if (closedSession != null) {
+            MinuteBitmapStore.updateCache(closedSession.getStartTime(), closedSession.getEndTime(),
+                    closedSession.getZoneOffset());
+        }
+
+        // 事务提交后通知ContentProvider的观察者
+        TimelineCache.invalidate();
+        ScreenLoggerProvider.notifyChange(context, ScreenLoggerProvider.EVENTS_URI);
+        ScreenLoggerProvider.notifyChange(context, ScreenLoggerProvider.DAILY_URI);
+        if (closedSession != null) {
+            ScreenLoggerProvider.notifyChange(context, ScreenLoggerProvider.SESSIONS_URI);
+        }
+    }
+
+    // 将熄屏事件与本机上一条亮屏事件配对，返回新生成的使用时段，没有则返回null
+    private Session closeSession(SQLiteDatabase db, long offTime, long offElapsed) {
+        // 本机事件按记录顺序（_id）查找，系统时间被调整时也不会找错；
+        // 只看参与配对的事件，期间的充电、解锁等事件不影响配对
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_EVENT_TYPE + ", " + COLUMN_TIME + ", " +
+                COLUMN_ELAPSED_REALTIME + ", " + COLUMN_ZONE_OFFSET + " FROM " + TABLE_NAME +
+                " WHERE " + LOCAL_EVENTS + " AND " + COLUMN_EVENT_TYPE + " IN " + SESSION_EVENT_TYPES +
+                " ORDER BY " + COLUMN_ID + " DESC LIMIT 1", null);
+        Session closed = null;
+        if (cursor.moveToFirst() && cursor.getInt(1) == EVENT_SCREEN_ON) {
+            long onId = cursor.getLong(0);
+            long startTime = cursor.getLong(2);
+            long endTime = sessionEndTime(startTime, cursor.getLong(3), offTime, offElapsed);
+            int zoneOffset = cursor.getInt(4);
+            boolean unlocked = wasUnlocked(db, onId);
+            insertSession(db, startTime, endTime, unlocked, zoneOffset);
+            UsageSummaries.recordSession(db, startTime, endTime, zoneOffset);
+            MinuteBitmapStore.recordSession(db, startTime, endTime, zoneOffset);
+            AnomalyDetector.recordSession(db, startTime, endTime, zoneOffset);
+            closed = new Session(startTime, endTime, unlocked, zoneOffset);
+        }
+        cursor.close();
+        return closed;
+    }
+
+    // 亮屏之后是否有过解锁事件
+    private static boolean wasUnlocked(SQLiteDatabase db, long onId) {
+        Cursor cursor = db.rawQuery("SELECT 1 FROM " + TABLE_NAME + " WHERE " + LOCAL_EVENTS + " AND " +
+                COLUMN_ID + " > ? AND " + COLUMN_EVENT_TYPE + " = " + EVENT_USER_PRESENT + " LIMIT 1",
+                new String[]{String.valueOf(onId)});
+        boolean unlocked = cursor.moveToFirst();
+        cursor.close();
+        return unlocked;
+    }
+
+    private static void insertSession(SQLiteDatabase db, long startTime, long endTime, boolean unlocked,
+                                      int zoneOffset) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_START_TIME, startTime);
+        values.put(COLUMN_END_TIME, endTime);
+        values.put(COLUMN_DURATION, endTime - startTime);
+        values.put(COLUMN_UNLOCKED, unlocked ? 1 : 0);
+        values.put(COLUMN_ZONE_OFFSET, zoneOffset);
+        db.insert(TABLE_SESSIONS, null, values);
+    }
+
+    // 使用时段的结束时间：两端都有单调时钟时（中间没有重启，已由开机事件保证）按elapsedRealtime之差计算时长，
+    // 期间调整系统时间或切换时区都不影响；否则退回到UTC时间之差
+    static long sessionEndTime(long startTime, long startElapsed, long endTime, long endElapsed) {
+        if (startElapsed >= 0 && endElapsed >= startElapsed) {
+            return startTime + (endElapsed - startElapsed);
+        }
+        return Math.max(startTime, endTime);
     }
 
-    // 获取最近12小时内的所有屏幕事件记录
+    // 获取本机最近12小时内的所有屏幕事件记录
     public List<ScreenEvent> getRecentScreenEvents() {
         List<ScreenEvent> events = new ArrayList<>();
         SQLiteDatabase db = this.getReadableDatabase();
-        
+
         // 计算12小时前的时间戳
         long twelveHoursAgo = System.currentTimeMillis() - (12 * 60 * 60 * 1000);
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-        String twelveHoursAgoStr = sdf.format(new Date(twelveHoursAgo));
-        
-        // 查询12小时内的记录，按时间戳降序排列
-        String selectQuery = "SELECT * FROM " + TABLE_NAME + 
-                             " WHERE " + COLUMN_TIMESTAMP + " >= ? " +
-                             " ORDER BY " + COLUMN_TIMESTAMP + " DESC";
-        
-        Cursor cursor = db.rawQuery(selectQuery, new String[]{twelveHoursAgoStr});
-        
-        if (cursor.moveToFirst()) {
-            do {
-                ScreenEvent event = new ScreenEvent();
-                
-                // 安全地获取列索引
-                int idColumnIndex = cursor.getColumnIndex(COLUMN_ID);
-                int typeColumnIndex = cursor.getColumnIndex(COLUMN_EVENT_TYPE);
-                int timeColumnIndex = cursor.getColumnIndex(COLUMN_TIMESTAMP);
-                
-                if (idColumnIndex != -1) {
-                    event.setId(cursor.getInt(idColumnIndex));
-                }
-                if (typeColumnIndex != -1) {
-                    event.setEventType(cursor.getString(typeColumnIndex));
-                }
-                if (timeColumnIndex != -1) {
-                    event.setTimestamp(cursor.getString(timeColumnIndex));
-                }
-                
-                events.add(event);
-            } while (cursor.moveToNext());
+
+        // 查询12小时内的记录，按记录顺序降序排列
+        String selectQuery = "SELECT * FROM " + TABLE_NAME +
+                             " WHERE " + LOCAL_EVENTS + " AND " + COLUMN_TIME + " >= ? " +
+                             " ORDER BY " + COLUMN_ID + " DESC";
+
+        Cursor cursor = db.rawQuery(selectQuery, new String[]{String.valueOf(twelveHoursAgo)});
+        EventIterator iterator = new EventIterator(cursor);
+        while (iterator.hasNext()) {
+            events.add(iterator.next());
         }
-        
-        cursor.close();
-        db.close();
-        
+
         return events;
     }
 
@@ -123,82 +508,336 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     // 获取指定事件类型的最后一次发生时间
-    private String getLastEventTime(String eventType) {
+    private String getLastEventTime(int eventType) {
         SQLiteDatabase db = this.getReadableDatabase();
         String lastTime = null;
-        
+
         String selectQuery = "SELECT " + COLUMN_TIMESTAMP + " FROM " + TABLE_NAME +
-                             " WHERE " + COLUMN_EVENT_TYPE + " = ? " +
-                             " ORDER BY " + COLUMN_TIMESTAMP + " DESC LIMIT 1";
-        
-        Cursor cursor = db.rawQuery(selectQuery, new String[]{eventType});
-        
+                             " WHERE " + LOCAL_EVENTS + " AND " + COLUMN_EVENT_TYPE + " = ? " +
+                             " ORDER BY " + COLUMN_ID + " DESC LIMIT 1";
+
+        Cursor cursor = db.rawQuery(selectQuery, new String[]{String.valueOf(eventType)});
+
         if (cursor.moveToFirst()) {
             lastTime = cursor.getString(0);
         }
-        
+
         cursor.close();
-        db.close();
-        
+
         return lastTime;
     }
 
     // 删除所有记录（用于测试）
     public void deleteAllEvents() {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_NAME, null, null);
-        db.close();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_NAME, null, null);
+            db.delete(TABLE_SESSIONS, null, null);
+            UsageSummaries.rebuild(db);
+            MinuteBitmapStore.rebuild(db);
+            AnomalyDetector.clear(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
         Log.d(TAG, "All events deleted");
+        MinuteBitmapStore.invalidateCache();
+        TimelineCache.invalidate();
+        ScreenLoggerProvider.notifyChange(context, ScreenLoggerProvider.CONTENT_URI);
     }
-    
+
     // 获取最近足够的事件以构建10次使用记录
     public List<ScreenEvent> getLastTenUsagePeriodsEvents() {
         List<ScreenEvent> events = new ArrayList<>();
         SQLiteDatabase db = this.getReadableDatabase();
-        
-        // 获取最近30个事件（足够构建10次使用记录），按时间戳降序排列
-        String selectQuery = "SELECT * FROM " + TABLE_NAME + 
-                             " ORDER BY " + COLUMN_TIMESTAMP + " DESC LIMIT 30";
-        
-        Cursor cursor = db.rawQuery(selectQuery, null);
-        
+
+        // 通过使用时段表找到第10次使用的开始时间，从该时间点起的事件即可构建最近10次使用记录
+        Cursor sessionCursor = db.rawQuery("SELECT MIN(" + COLUMN_START_TIME + ") FROM (SELECT " + COLUMN_START_TIME +
+                " FROM " + TABLE_SESSIONS + " ORDER BY " + COLUMN_START_TIME + " DESC LIMIT 10)", null);
+        long fromTime = -1;
+        if (sessionCursor.moveToFirst() && !sessionCursor.isNull(0)) {
+            fromTime = sessionCursor.getLong(0);
+        }
+        sessionCursor.close();
+
+        Cursor cursor;
+        if (fromTime >= 0) {
+            // 从该亮屏事件起按记录顺序读取，之后调整系统时间也不会漏掉或打乱事件
+            cursor = db.rawQuery("SELECT * FROM " + TABLE_NAME +
+                    " WHERE " + LOCAL_EVENTS + " AND " + COLUMN_ID + " >= (SELECT MIN(" + COLUMN_ID + ") FROM " +
+                    TABLE_NAME + " WHERE " + LOCAL_EVENTS + " AND " + COLUMN_TIME + " >= ?)" +
+                    " ORDER BY " + COLUMN_ID + " ASC",
+                    new String[]{String.valueOf(fromTime)});
+        } else {
+            // 还没有完整的使用时段时，退回到最近30个事件
+            cursor = db.rawQuery("SELECT * FROM (SELECT * FROM " + TABLE_NAME + " WHERE " + LOCAL_EVENTS +
+                    " ORDER BY " + COLUMN_ID + " DESC LIMIT 30)" +
+                    " ORDER BY " + COLUMN_ID + " ASC", null);
+        }
+
+        EventIterator iterator = new EventIterator(cursor);
+        while (iterator.hasNext()) {
+            events.add(iterator.next());
+        }
+
+        return events;
+    }
+
+    // 流式查询 [fromTime, toTime) 内所有设备的屏幕事件，按时间升序（走时间索引）
+    public CursorIterator<ScreenEvent> queryEvents(long fromTime, long toTime) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_NAME +
+                " WHERE " + COLUMN_TIME + " >= ? AND " + COLUMN_TIME + " < ? " +
+                " ORDER BY " + COLUMN_TIME + " ASC, " + COLUMN_ID + " ASC",
+                new String[]{String.valueOf(fromTime), String.valueOf(toTime)});
+        return new EventIterator(cursor);
+    }
+
+    // 流式查询 [fromTime, toTime) 内所有设备的指定类型事件，按时间升序；
+    // 时间索引包含事件类型，其他类型的事件在索引中跳过，不读取表中的行
+    public CursorIterator<ScreenEvent> queryEvents(long fromTime, long toTime, int eventType) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_NAME +
+                " WHERE " + COLUMN_TIME + " >= ? AND " + COLUMN_TIME + " < ? AND " + COLUMN_EVENT_TYPE + " = ? " +
+                " ORDER BY " + COLUMN_TIME + " ASC, " + COLUMN_ID + " ASC",
+                new String[]{String.valueOf(fromTime), String.valueOf(toTime), String.valueOf(eventType)});
+        return new EventIterator(cursor);
+    }
+
+    // 获取time之后（含）本机的第一次解锁时间，没有则返回-1（走时间索引，读到第一条解锁即停止）
+    public long getFirstUnlockAfter(long time) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_TIME + " FROM " + TABLE_NAME +
+                " WHERE " + COLUMN_TIME + " >= ? AND " + COLUMN_EVENT_TYPE + " = ? AND " + LOCAL_EVENTS +
+                " ORDER BY " + COLUMN_TIME + " ASC LIMIT 1",
+                new String[]{String.valueOf(time), String.valueOf(EVENT_USER_PRESENT)});
+        long unlockTime = -1;
         if (cursor.moveToFirst()) {
-            do {
-                ScreenEvent event = new ScreenEvent();
-                
-                // 安全地获取列索引
-                int idColumnIndex = cursor.getColumnIndex(COLUMN_ID);
-                int typeColumnIndex = cursor.getColumnIndex(COLUMN_EVENT_TYPE);
-                int timeColumnIndex = cursor.getColumnIndex(COLUMN_TIMESTAMP);
-                
-                if (idColumnIndex != -1) {
-                    event.setId(cursor.getInt(idColumnIndex));
-                }
-                if (typeColumnIndex != -1) {
-                    event.setEventType(cursor.getString(typeColumnIndex));
-                }
-                if (timeColumnIndex != -1) {
-                    event.setTimestamp(cursor.getString(timeColumnIndex));
-                }
-                
-                events.add(event);
-            } while (cursor.moveToNext());
+            unlockTime = cursor.getLong(0);
         }
-        
         cursor.close();
-        db.close();
-        
-        // 由于我们是按降序获取的，现在需要反转列表以按时间顺序处理
-        Collections.reverse(events);
-        
-        return events;
+        return unlockTime;
+    }
+
+    // 流式查询开始时间在 [fromTime, toTime) 内的使用时段，按开始时间升序
+    public CursorIterator<Session> querySessions(long fromTime, long toTime) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_SESSIONS +
+                " WHERE " + COLUMN_START_TIME + " >= ? AND " + COLUMN_START_TIME + " < ? " +
+                " ORDER BY " + COLUMN_START_TIME + " ASC",
+                new String[]{String.valueOf(fromTime), String.valueOf(toTime)});
+        return new SessionIterator(cursor);
+    }
+
+    // 获取time之前最后一个使用时段的开始时间，没有则返回-1（走开始时间索引，只读一行）
+    public long getLastSessionStartBefore(long time) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT MAX(" + COLUMN_START_TIME + ") FROM " + TABLE_SESSIONS +
+                " WHERE " + COLUMN_START_TIME + " < ?", new String[]{String.valueOf(time)});
+        long startTime = -1;
+        if (cursor.moveToFirst() && !cursor.isNull(0)) {
+            startTime = cursor.getLong(0);
+        }
+        cursor.close();
+        return startTime;
+    }
+
+    // 查询 [fromTime, toTime) 内时长最长的前limit个使用时段，按时长降序
+    public CursorIterator<Session> queryLongestSessions(long fromTime, long toTime, int limit) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_SESSIONS +
+                " WHERE " + COLUMN_START_TIME + " >= ? AND " + COLUMN_START_TIME + " < ? " +
+                " ORDER BY " + COLUMN_DURATION + " DESC LIMIT ?",
+                new String[]{String.valueOf(fromTime), String.valueOf(toTime), String.valueOf(limit)});
+        return new SessionIterator(cursor);
+    }
+
+    // 按固定长度的时间桶统计 [fromTime, toTime) 内开始的使用次数和亮屏总时长，按时间升序，空桶不返回；
+    // 走开始时间索引，只读取范围内的使用时段
+    public CursorIterator<UsageBucket> queryUsageBuckets(long fromTime, long toTime, long bucketMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("bucketMillis must be positive");
+        }
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT (" + COLUMN_START_TIME + " - ?) / ? AS bucket, " +
+                "COUNT(*), SUM(" + COLUMN_DURATION + ") FROM " + TABLE_SESSIONS +
+                " WHERE " + COLUMN_START_TIME + " >= ? AND " + COLUMN_START_TIME + " < ? " +
+                " GROUP BY bucket ORDER BY bucket ASC",
+                new String[]{String.valueOf(fromTime), String.valueOf(bucketMillis),
+                        String.valueOf(fromTime), String.valueOf(toTime)});
+        return new BucketIterator(cursor, fromTime, bucketMillis);
+    }
+
+    // 读取本地日期 [fromDay, toDay) 内的每日汇总（解锁次数和亮屏时长），按日期升序；
+    // 直接读取增量维护的daily_stats，不扫描使用时段表，没有记录的日期不返回
+    public CursorIterator<DailyUsage> queryDailyUsage(int fromDay, int toDay) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT " + UsageSummaries.COLUMN_DAY + ", " + UsageSummaries.COLUMN_UNLOCKS +
+                ", " + UsageSummaries.COLUMN_ON_TIME + " FROM " + UsageSummaries.TABLE_DAILY +
+                " WHERE " + UsageSummaries.COLUMN_DAY + " >= ? AND " + UsageSummaries.COLUMN_DAY + " < ? " +
+                " ORDER BY " + UsageSummaries.COLUMN_DAY + " ASC",
+                new String[]{TimeBuckets.formatDay(fromDay), TimeBuckets.formatDay(toDay)});
+        return new DailyUsageIterator(cursor);
+    }
+
+    // 读取统计页面使用的汇总数据，只访问固定大小的汇总表
+    public UsageSummaries.Snapshot getUsageSummary() {
+        return UsageSummaries.load(this.getReadableDatabase());
+    }
+
+    // 获取 [fromTime, toTime) 内检测到的异常时间
+    public long[] getAnomalyTimes(long fromTime, long toTime) {
+        return AnomalyDetector.loadTimes(this.getReadableDatabase(), fromTime, toTime);
+    }
+
+    // 获取最近一年的分钟位图，加载后常驻内存
+    public MinuteBitmap getMinuteBitmap() {
+        return MinuteBitmapStore.getRecent(this.getReadableDatabase());
+    }
+
+    // 事件类型代码对应的名称
+    public static String getEventTypeName(int eventType) {
+        if (eventType < 0 || eventType >= EVENT_TYPE_NAMES.length) {
+            return EVENT_TYPE_NAMES[EVENT_UNKNOWN];
+        }
+        return EVENT_TYPE_NAMES[eventType];
+    }
+
+    // 事件类型名称对应的代码，未知名称返回EVENT_UNKNOWN
+    public static int getEventTypeCode(String name) {
+        for (int code = 0; code < EVENT_TYPE_NAMES.length; code++) {
+            if (EVENT_TYPE_NAMES[code].equals(name)) {
+                return code;
+            }
+        }
+        return EVENT_UNKNOWN;
+    }
+
+    // 将毫秒时间戳格式化为数据库中存储的时间字符串
+    public static String formatTimestamp(long time) {
+        SimpleDateFormat sdf = new SimpleDateFormat(TIMESTAMP_PATTERN, Locale.getDefault());
+        return sdf.format(new Date(time));
+    }
+
+    // 将数据库中的时间字符串解析为毫秒时间戳，解析失败返回-1
+    public static long parseTimestamp(String timestamp) {
+        SimpleDateFormat sdf = new SimpleDateFormat(TIMESTAMP_PATTERN, Locale.getDefault());
+        try {
+            return sdf.parse(timestamp).getTime();
+        } catch (ParseException e) {
+            Log.w(TAG, "Invalid timestamp: " + timestamp);
+            return -1;
+        }
+    }
+
+    private static class EventIterator extends CursorIterator<ScreenEvent> {
+        private final int idColumnIndex;
+        private final int typeColumnIndex;
+        private final int timeColumnIndex;
+        private final int deviceColumnIndex;
+        private final int utcColumnIndex;
+        private final int elapsedColumnIndex;
+        private final int zoneColumnIndex;
+
+        EventIterator(Cursor cursor) {
+            super(cursor);
+            // 安全地获取列索引
+            idColumnIndex = cursor.getColumnIndex(COLUMN_ID);
+            typeColumnIndex = cursor.getColumnIndex(COLUMN_EVENT_TYPE);
+            timeColumnIndex = cursor.getColumnIndex(COLUMN_TIMESTAMP);
+            deviceColumnIndex = cursor.getColumnIndex(COLUMN_DEVICE_ID);
+            utcColumnIndex = cursor.getColumnIndex(COLUMN_TIME);
+            elapsedColumnIndex = cursor.getColumnIndex(COLUMN_ELAPSED_REALTIME);
+            zoneColumnIndex = cursor.getColumnIndex(COLUMN_ZONE_OFFSET);
+        }
+
+        @Override
+        protected ScreenEvent read(Cursor cursor) {
+            ScreenEvent event = new ScreenEvent();
+            if (idColumnIndex != -1) {
+                event.setId(cursor.getInt(idColumnIndex));
+            }
+            if (typeColumnIndex != -1) {
+                event.setEventType(cursor.getInt(typeColumnIndex));
+            }
+            if (timeColumnIndex != -1) {
+                event.setTimestamp(cursor.getString(timeColumnIndex));
+            }
+            if (deviceColumnIndex != -1) {
+                event.setDeviceId(cursor.getString(deviceColumnIndex));
+            }
+            if (utcColumnIndex != -1) {
+                event.setTime(cursor.getLong(utcColumnIndex));
+            }
+            if (elapsedColumnIndex != -1) {
+                event.setElapsedRealtime(cursor.getLong(elapsedColumnIndex));
+            }
+            if (zoneColumnIndex != -1) {
+                event.setZoneOffset(cursor.getInt(zoneColumnIndex));
+            }
+            return event;
+        }
+    }
+
+    private static class SessionIterator extends CursorIterator<Session> {
+        private final int startColumnIndex;
+        private final int endColumnIndex;
+        private final int unlockedColumnIndex;
+        private final int zoneColumnIndex;
+
+        SessionIterator(Cursor cursor) {
+            super(cursor);
+            startColumnIndex = cursor.getColumnIndex(COLUMN_START_TIME);
+            endColumnIndex = cursor.getColumnIndex(COLUMN_END_TIME);
+            unlockedColumnIndex = cursor.getColumnIndex(COLUMN_UNLOCKED);
+            zoneColumnIndex = cursor.getColumnIndex(COLUMN_ZONE_OFFSET);
+        }
+
+        @Override
+        protected Session read(Cursor cursor) {
+            return new Session(cursor.getLong(startColumnIndex), cursor.getLong(endColumnIndex),
+                    cursor.getInt(unlockedColumnIndex) != 0, cursor.getInt(zoneColumnIndex));
+        }
+    }
+
+    private static class BucketIterator extends CursorIterator<UsageBucket> {
+        private final long fromTime;
+        private final long bucketMillis;
+
+        BucketIterator(Cursor cursor, long fromTime, long bucketMillis) {
+            super(cursor);
+            this.fromTime = fromTime;
+            this.bucketMillis = bucketMillis;
+        }
+
+        @Override
+        protected UsageBucket read(Cursor cursor) {
+            long bucketStart = fromTime + cursor.getLong(0) * bucketMillis;
+            return new UsageBucket(bucketStart, bucketStart + bucketMillis, cursor.getInt(1), cursor.getLong(2));
+        }
+    }
+
+    private static class DailyUsageIterator extends CursorIterator<DailyUsage> {
+        DailyUsageIterator(Cursor cursor) {
+            super(cursor);
+        }
+
+        @Override
+        protected DailyUsage read(Cursor cursor) {
+            return new DailyUsage(cursor.getString(0), cursor.getInt(1), cursor.getLong(2));
+        }
     }
 
     // 屏幕事件实体类
     public static class ScreenEvent {
         private int id;
-        private String eventType;
+        private int eventType;
         private String timestamp;
+        private String deviceId = LOCAL_DEVICE;
+        private long time;
+        private long elapsedRealtime = -1;
+        private int zoneOffset;
 
         public int getId() {
             return id;
@@ -208,11 +847,11 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             this.id = id;
         }
 
-        public String getEventType() {
+        public int getEventType() {
             return eventType;
         }
 
-        public void setEventType(String eventType) {
+        public void setEventType(int eventType) {
             this.eventType = eventType;
         }
 
@@ -223,5 +862,134 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         public void setTimestamp(String timestamp) {
             this.timestamp = timestamp;
         }
+
+        // 本机事件返回空字符串
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public void setDeviceId(String deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        // UTC毫秒时间
+        public long getTime() {
+            return time;
+        }
+
+        public void setTime(long time) {
+            this.time = time;
+        }
+
+        // 记录时的elapsedRealtime，未知时为-1
+        public long getElapsedRealtime() {
+            return elapsedRealtime;
+        }
+
+        public void setElapsedRealtime(long elapsedRealtime) {
+            this.elapsedRealtime = elapsedRealtime;
+        }
+
+        public int getZoneOffset() {
+            return zoneOffset;
+        }
+
+        public void setZoneOffset(int zoneOffset) {
+            this.zoneOffset = zoneOffset;
+        }
+    }
+
+    // 使用时段实体类（一次亮屏到熄屏）
+    public static class Session {
+        private final long startTime;
+        private final long endTime;
+        private final boolean unlocked;
+        private final int zoneOffset;
+
+        public Session(long startTime, long endTime, boolean unlocked, int zoneOffset) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.unlocked = unlocked;
+            this.zoneOffset = zoneOffset;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+
+        public long getDuration() {
+            return endTime - startTime;
+        }
+
+        // 是否解锁使用过，false表示只在锁屏界面亮屏
+        public boolean isUnlocked() {
+            return unlocked;
+        }
+
+        // 亮屏时的时区偏移（毫秒）
+        public int getZoneOffset() {
+            return zoneOffset;
+        }
+    }
+
+    // 时间桶统计结果
+    public static class UsageBucket {
+        private final long startTime;
+        private final long endTime;
+        private final int sessionCount;
+        private final long totalOnTime;
+
+        public UsageBucket(long startTime, long endTime, int sessionCount, long totalOnTime) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.sessionCount = sessionCount;
+            this.totalOnTime = totalOnTime;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+
+        public int getSessionCount() {
+            return sessionCount;
+        }
+
+        public long getTotalOnTime() {
+            return totalOnTime;
+        }
+    }
+
+    // 一天的汇总
+    public static class DailyUsage {
+        private final String day;
+        private final int unlocks;
+        private final long onTime;
+
+        public DailyUsage(String day, int unlocks, long onTime) {
+            this.day = day;
+            this.unlocks = unlocks;
+            this.onTime = onTime;
+        }
+
+        // 本地日期，yyyy-MM-dd
+        public String getDay() {
+            return day;
+        }
+
+        public int getUnlocks() {
+            return unlocks;
+        }
+
+        public long getOnTime() {
+            return onTime;
+        }
     }
-}
\ No newline at end of file
+}
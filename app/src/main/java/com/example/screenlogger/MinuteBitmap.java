@@ -0,0 +1,100 @@
+package com.example.screenlogger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 按分钟记录亮屏状态的位图，每一位表示某一分钟内屏幕是否亮起。
+ * 每天占用23个long（1472位，前1440位有效），按天对齐存放，
+ * 一年约66KB，统计某天的亮屏分钟数只需对23个long做popcount。
+ */
+public class MinuteBitmap {
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    public static final int WORDS_PER_DAY = (MINUTES_PER_DAY + 63) / 64;
+    public static final int BYTES_PER_DAY = WORDS_PER_DAY * 8;
+
+    // 第一天的日期编号（自1970-01-01起的本地天数）
+    private final int firstDay;
+    private final int dayCount;
+    private final long[] words;
+
+    public MinuteBitmap(int firstDay, int dayCount) {
+        this.firstDay = firstDay;
+        this.dayCount = dayCount;
+        this.words = new long[dayCount * WORDS_PER_DAY];
+    }
+
+    public int getFirstDay() {
+        return firstDay;
+    }
+
+    public int getDayCount() {
+        return dayCount;
+    }
+
+    public boolean containsDay(int day) {
+        return day >= firstDay && day < firstDay + dayCount;
+    }
+
+    // 将某天 [fromMinute, toMinute) 范围内的分钟标记为亮屏
+    public void setMinutes(int day, int fromMinute, int toMinute) {
+        if (!containsDay(day)) {
+            return;
+        }
+        setMinutes(words, (day - firstDay) * WORDS_PER_DAY, fromMinute, toMinute);
+    }
+
+    // 统计某天的亮屏分钟数
+    public int countDay(int day) {
+        if (!containsDay(day)) {
+            return 0;
+        }
+        int offset = (day - firstDay) * WORDS_PER_DAY;
+        int count = 0;
+        for (int i = 0; i < WORDS_PER_DAY; i++) {
+            count += Long.bitCount(words[offset + i]);
+        }
+        return count;
+    }
+
+    // 用某天的序列化数据覆盖该天
+    public void setDayBytes(int day, byte[] bytes) {
+        if (!containsDay(day) || bytes == null || bytes.length != BYTES_PER_DAY) {
+            return;
+        }
+        ByteBuffer.wrap(bytes).asLongBuffer().get(words, (day - firstDay) * WORDS_PER_DAY, WORDS_PER_DAY);
+    }
+
+    // 在单天的序列化数据上标记 [fromMinute, toMinute)，返回新的数据
+    public static byte[] setMinutes(byte[] dayBytes, int fromMinute, int toMinute) {
+        long[] dayWords = new long[WORDS_PER_DAY];
+        if (dayBytes != null && dayBytes.length == BYTES_PER_DAY) {
+            ByteBuffer.wrap(dayBytes).asLongBuffer().get(dayWords);
+        }
+        setMinutes(dayWords, 0, fromMinute, toMinute);
+
+        ByteBuffer buffer = ByteBuffer.allocate(BYTES_PER_DAY);
+        buffer.asLongBuffer().put(dayWords);
+        return buffer.array();
+    }
+
+    private static void setMinutes(long[] words, int offset, int fromMinute, int toMinute) {
+        fromMinute = Math.max(0, fromMinute);
+        toMinute = Math.min(MINUTES_PER_DAY, toMinute);
+        if (fromMinute >= toMinute) {
+            return;
+        }
+        int firstWord = fromMinute >>> 6;
+        int lastWord = (toMinute - 1) >>> 6;
+        long firstMask = -1L << (fromMinute & 63);
+        long lastMask = -1L >>> (63 - ((toMinute - 1) & 63));
+        if (firstWord == lastWord) {
+            words[offset + firstWord] |= firstMask & lastMask;
+            return;
+        }
+        words[offset + firstWord] |= firstMask;
+        for (int i = firstWord + 1; i < lastWord; i++) {
+            words[offset + i] = -1L;
+        }
+        words[offset + lastWord] |= lastMask;
+    }
+}
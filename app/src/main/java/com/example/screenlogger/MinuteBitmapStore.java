@@ -0,0 +1,179 @@
+package com.example.screenlogger;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * 按天存储的分钟位图表，使用时段结束时增量更新。
+ * 最近一年的位图在内存中缓存，热力图绘制时不需要查询数据库。
+ * 内存缓存只在数据库事务提交之后更新（见updateCache），事务回滚时缓存不会与数据库不一致。
+ */
+public class MinuteBitmapStore {
+
+    private static final String TAG = "MinuteBitmapStore";
+
+    public static final String TABLE_MINUTE_BITMAP = "minute_bitmap";
+    public static final String COLUMN_DAY = "day";
+    public static final String COLUMN_BITS = "bits";
+
+    // 缓存最近53周的数据，正好覆盖一整年的日历热力图
+    public static final int CACHED_DAYS = 53 * 7;
+
+    private static final long MINUTE_MILLIS = TimeBuckets.MINUTE_MILLIS;
+    private static final long DAY_MILLIS = TimeBuckets.DAY_MILLIS;
+
+    private static MinuteBitmap cached;
+    // 每次更新或丢弃缓存时加1，加载开始后发生过变化的结果不放入缓存（同TimelineCache）
+    private static int generation;
+
+    private MinuteBitmapStore() {
+    }
+
+    public static void createTable(SQLiteDatabase db) {
+        createTable(db, "");
+    }
+
+    // suffix不为空时创建重建用的影子表（见SessionBackfill）
+    static void createTable(SQLiteDatabase db, String suffix) {
+        db.execSQL("CREATE TABLE " + TABLE_MINUTE_BITMAP + suffix + " (" +
+                COLUMN_DAY + " INTEGER PRIMARY KEY, " +
+                COLUMN_BITS + " BLOB NOT NULL" +
+                ");");
+    }
+
+    static void dropTable(SQLiteDatabase db, String suffix) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MINUTE_BITMAP + suffix);
+    }
+
+    // 用重建好的影子表替换位图表，事务提交后需调用invalidateCache()
+    static void replaceTable(SQLiteDatabase db, String suffix) {
+        db.execSQL("DROP TABLE " + TABLE_MINUTE_BITMAP);
+        db.execSQL("ALTER TABLE " + TABLE_MINUTE_BITMAP + suffix + " RENAME TO " + TABLE_MINUTE_BITMAP);
+    }
+
+    // 将一个使用时段覆盖的分钟写入位图表，在写入使用时段的同一事务中调用
+    public static void recordSession(SQLiteDatabase db, long startTime, long endTime, int zoneOffset) {
+        recordSession(db, "", startTime, endTime, zoneOffset);
+    }
+
+    static void recordSession(SQLiteDatabase db, String suffix, long startTime, long endTime, int zoneOffset) {
+        sliceSession(db, TABLE_MINUTE_BITMAP + suffix, null, startTime, endTime, zoneOffset);
+    }
+
+    // 事务提交后把同一个使用时段写入内存缓存；重复写入同一分钟不影响结果
+    public static void updateCache(long startTime, long endTime, int zoneOffset) {
+        synchronized (MinuteBitmapStore.class) {
+            // 缓存为空时也要加1：正在进行的加载可能在这个使用时段提交之前读取了数据库
+            generation++;
+            if (cached != null) {
+                sliceSession(null, null, cached, startTime, endTime, zoneOffset);
+            }
+        }
+    }
+
+    // 按亮屏时的时区偏移把使用时段切分到各天，写入数据库中的table表或内存位图（不为null的一方）
+    private static void sliceSession(SQLiteDatabase db, String table, MinuteBitmap bitmap, long startTime,
+                                     long endTime, int zoneOffset) {
+        long sliceStart = startTime;
+        while (sliceStart < endTime) {
+            long localStart = TimeBuckets.localMillis(sliceStart, zoneOffset);
+            int day = TimeBuckets.localDay(sliceStart, zoneOffset);
+            long dayStartLocal = day * DAY_MILLIS;
+            long sliceEnd = Math.min(endTime, sliceStart + (dayStartLocal + DAY_MILLIS - localStart));
+
+            int fromMinute = (int) ((localStart - dayStartLocal) / MINUTE_MILLIS);
+            // 结束分钟向上取整，不足一分钟的亮屏也计入
+            int toMinute = (int) ((localStart - dayStartLocal + (sliceEnd - sliceStart) + MINUTE_MILLIS - 1) / MINUTE_MILLIS);
+            toMinute = Math.max(toMinute, fromMinute + 1);
+            if (db != null) {
+                setMinutes(db, table, day, fromMinute, toMinute);
+            }
+            if (bitmap != null) {
+                bitmap.setMinutes(day, fromMinute, toMinute);
+            }
+
+            sliceStart = sliceEnd;
+        }
+    }
+
+    private static void setMinutes(SQLiteDatabase db, String table, int day, int fromMinute, int toMinute) {
+        byte[] bits = null;
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_BITS + " FROM " + table +
+                " WHERE " + COLUMN_DAY + " = ?", new String[]{String.valueOf(day)});
+        if (cursor.moveToFirst()) {
+            bits = cursor.getBlob(0);
+        }
+        cursor.close();
+
+        bits = MinuteBitmap.setMinutes(bits, fromMinute, toMinute);
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_DAY, day);
+        values.put(COLUMN_BITS, bits);
+        db.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    // 清空位图并根据使用时段表重新生成
+    public static void rebuild(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_MINUTE_BITMAP, null, null);
+            Cursor sessions = db.rawQuery("SELECT " + DatabaseHelper.COLUMN_START_TIME + ", " +
+                    DatabaseHelper.COLUMN_END_TIME + ", " + DatabaseHelper.COLUMN_ZONE_OFFSET + " FROM " +
+                    DatabaseHelper.TABLE_SESSIONS, null);
+            while (sessions.moveToNext()) {
+                recordSession(db, sessions.getLong(0), sessions.getLong(1), sessions.getInt(2));
+            }
+            sessions.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // 事务结束后再丢弃缓存，下次读取时从数据库重新加载
+        invalidateCache();
+        Log.d(TAG, "Minute bitmap rebuilt");
+    }
+
+    // 丢弃内存中的位图；在外层事务中重建时，需要在外层事务提交后再调用一次
+    public static void invalidateCache() {
+        synchronized (MinuteBitmapStore.class) {
+            generation++;
+            cached = null;
+        }
+    }
+
+    // 获取包含今天在内最近CACHED_DAYS天的位图，首次调用时从数据库加载。
+    // 加载不持有锁；加载期间有使用时段写入缓存或缓存被丢弃时，结果只返回给本次调用，不覆盖缓存
+    public static MinuteBitmap getRecent(SQLiteDatabase db) {
+        int today = today();
+        int startGeneration;
+        synchronized (MinuteBitmapStore.class) {
+            if (cached != null && cached.containsDay(today)) {
+                return cached;
+            }
+            startGeneration = generation;
+        }
+
+        MinuteBitmap bitmap = new MinuteBitmap(today - CACHED_DAYS + 1, CACHED_DAYS);
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_DAY + ", " + COLUMN_BITS + " FROM " + TABLE_MINUTE_BITMAP +
+                " WHERE " + COLUMN_DAY + " >= ?", new String[]{String.valueOf(bitmap.getFirstDay())});
+        while (cursor.moveToNext()) {
+            bitmap.setDayBytes(cursor.getInt(0), cursor.getBlob(1));
+        }
+        cursor.close();
+
+        synchronized (MinuteBitmapStore.class) {
+            if (startGeneration == generation) {
+                cached = bitmap;
+            }
+        }
+        return bitmap;
+    }
+
+    // 今天的本地日期编号
+    public static int today() {
+        long now = System.currentTimeMillis();
+        return TimeBuckets.localDay(now, TimeBuckets.zoneOffset(now));
+    }
+}
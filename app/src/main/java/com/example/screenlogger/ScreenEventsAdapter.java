@@ -33,13 +33,8 @@ public class ScreenEventsAdapter extends RecyclerView.Adapter<ScreenEventsAdapte
         DatabaseHelper.ScreenEvent event = eventsList.get(position);
         
         // 设置事件类型文本
-        if (DatabaseHelper.EVENT_SCREEN_ON.equals(event.getEventType())) {
-            holder.eventTypeTextView.setText(context.getString(R.string.screen_on_text));
-            holder.eventTypeTextView.setTextColor(context.getResources().getColor(android.R.color.holo_green_dark));
-        } else if (DatabaseHelper.EVENT_SCREEN_OFF.equals(event.getEventType())) {
-            holder.eventTypeTextView.setText(context.getString(R.string.screen_off_text));
-            holder.eventTypeTextView.setTextColor(context.getResources().getColor(android.R.color.holo_red_dark));
-        }
+        holder.eventTypeTextView.setText(context.getString(getEventTextRes(event.getEventType())));
+        holder.eventTypeTextView.setTextColor(context.getResources().getColor(getEventColorRes(event.getEventType())));
         
         // 设置时间戳文本
         holder.timestampTextView.setText(event.getTimestamp());
@@ -57,6 +52,47 @@ public class ScreenEventsAdapter extends RecyclerView.Adapter<ScreenEventsAdapte
         return eventsList != null ? eventsList.size() : 0;
     }
 
+    private static int getEventTextRes(int eventType) {
+        switch (eventType) {
+            case DatabaseHelper.EVENT_SCREEN_ON:
+                return R.string.screen_on_text;
+            case DatabaseHelper.EVENT_SCREEN_OFF:
+                return R.string.screen_off_text;
+            case DatabaseHelper.EVENT_USER_PRESENT:
+                return R.string.user_present_text;
+            case DatabaseHelper.EVENT_BOOT:
+                return R.string.boot_text;
+            case DatabaseHelper.EVENT_SHUTDOWN:
+                return R.string.shutdown_text;
+            case DatabaseHelper.EVENT_POWER_CONNECTED:
+                return R.string.power_connected_text;
+            case DatabaseHelper.EVENT_POWER_DISCONNECTED:
+                return R.string.power_disconnected_text;
+            case DatabaseHelper.EVENT_DOZE_ENTER:
+                return R.string.doze_enter_text;
+            case DatabaseHelper.EVENT_DOZE_EXIT:
+                return R.string.doze_exit_text;
+            default:
+                return R.string.unknown_event_text;
+        }
+    }
+
+    private static int getEventColorRes(int eventType) {
+        switch (eventType) {
+            case DatabaseHelper.EVENT_SCREEN_ON:
+            case DatabaseHelper.EVENT_USER_PRESENT:
+                return android.R.color.holo_green_dark;
+            case DatabaseHelper.EVENT_SCREEN_OFF:
+            case DatabaseHelper.EVENT_SHUTDOWN:
+                return android.R.color.holo_red_dark;
+            case DatabaseHelper.EVENT_POWER_CONNECTED:
+            case DatabaseHelper.EVENT_POWER_DISCONNECTED:
+                return android.R.color.holo_orange_dark;
+            default:
+                return android.R.color.holo_blue_dark;
+        }
+    }
+
     // 更新数据列表
     public void setEventsList(List<DatabaseHelper.ScreenEvent> eventsList) {
         this.eventsList = eventsList;
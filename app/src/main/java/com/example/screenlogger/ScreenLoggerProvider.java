@@ -0,0 +1,203 @@
+package com.example.screenlogger;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 只读的ContentProvider，向其他应用开放屏幕事件、使用时段和每日汇总。
+ * 时间范围通过查询参数 from / to（UTC毫秒时间，左闭右开）和 limit 传入，
+ * 直接拼进带索引的SQL中；返回的是数据库的窗口化Cursor，不会先把结果读成列表。
+ * 数据写入时会通知对应的URI，客户端注册ContentObserver即可，无需轮询。
+ */
+public class ScreenLoggerProvider extends ContentProvider {
+
+    public static final String AUTHORITY = "com.example.screenlogger.provider";
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
+    public static final Uri EVENTS_URI = Uri.withAppendedPath(CONTENT_URI, "events");
+    public static final Uri SESSIONS_URI = Uri.withAppendedPath(CONTENT_URI, "sessions");
+    public static final Uri DAILY_URI = Uri.withAppendedPath(CONTENT_URI, "daily");
+
+    public static final String PARAM_FROM = "from";
+    public static final String PARAM_TO = "to";
+    public static final String PARAM_LIMIT = "limit";
+
+    private static final int EVENTS = 1;
+    private static final int SESSIONS = 2;
+    private static final int DAILY = 3;
+
+    private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        URI_MATCHER.addURI(AUTHORITY, "events", EVENTS);
+        URI_MATCHER.addURI(AUTHORITY, "sessions", SESSIONS);
+        URI_MATCHER.addURI(AUTHORITY, "daily", DAILY);
+    }
+
+    // event_type为整数代码，event_name为对应的名称
+    public static final String COLUMN_EVENT_NAME = "event_name";
+
+    private static final Map<String, String> EVENT_COLUMNS = columns(DatabaseHelper.COLUMN_ID,
+            DatabaseHelper.COLUMN_EVENT_TYPE, DatabaseHelper.COLUMN_TIMESTAMP, DatabaseHelper.COLUMN_DEVICE_ID,
+            DatabaseHelper.COLUMN_TIME, DatabaseHelper.COLUMN_ZONE_OFFSET);
+    private static final Map<String, String> SESSION_COLUMNS = columns(DatabaseHelper.COLUMN_ID,
+            DatabaseHelper.COLUMN_START_TIME, DatabaseHelper.COLUMN_END_TIME, DatabaseHelper.COLUMN_DURATION,
+            DatabaseHelper.COLUMN_UNLOCKED, DatabaseHelper.COLUMN_ZONE_OFFSET);
+
+    static {
+        EVENT_COLUMNS.put(COLUMN_EVENT_NAME, "(SELECT " + DatabaseHelper.COLUMN_NAME + " FROM " +
+                DatabaseHelper.TABLE_EVENT_TYPES + " WHERE " + DatabaseHelper.COLUMN_CODE + " = " +
+                DatabaseHelper.TABLE_NAME + "." + DatabaseHelper.COLUMN_EVENT_TYPE + ") AS " + COLUMN_EVENT_NAME);
+    }
+    private static final Map<String, String> DAILY_COLUMNS = columns(UsageSummaries.COLUMN_DAY,
+            UsageSummaries.COLUMN_UNLOCKS, UsageSummaries.COLUMN_ON_TIME);
+
+    @Override
+    public boolean onCreate() {
+        // 数据库在第一次查询时才打开
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        // 严格模式下只允许投影映射中的列，并拒绝可疑的selection
+        builder.setStrict(true);
+
+        String from = uri.getQueryParameter(PARAM_FROM);
+        String to = uri.getQueryParameter(PARAM_TO);
+        String limit = parseLimit(uri.getQueryParameter(PARAM_LIMIT));
+
+        switch (URI_MATCHER.match(uri)) {
+            case EVENTS:
+                builder.setTables(DatabaseHelper.TABLE_NAME);
+                builder.setProjectionMap(EVENT_COLUMNS);
+                appendRange(builder, DatabaseHelper.COLUMN_TIME,
+                        from != null ? String.valueOf(parseTime(from)) : null,
+                        to != null ? String.valueOf(parseTime(to)) : null);
+                if (sortOrder == null) {
+                    sortOrder = DatabaseHelper.COLUMN_TIME + " ASC";
+                }
+                break;
+            case SESSIONS:
+                builder.setTables(DatabaseHelper.TABLE_SESSIONS);
+                builder.setProjectionMap(SESSION_COLUMNS);
+                appendRange(builder, DatabaseHelper.COLUMN_START_TIME,
+                        from != null ? String.valueOf(parseTime(from)) : null,
+                        to != null ? String.valueOf(parseTime(to)) : null);
+                if (sortOrder == null) {
+                    sortOrder = DatabaseHelper.COLUMN_START_TIME + " ASC";
+                }
+                break;
+            case DAILY:
+                builder.setTables(UsageSummaries.TABLE_DAILY);
+                builder.setProjectionMap(DAILY_COLUMNS);
+                appendRange(builder, UsageSummaries.COLUMN_DAY,
+                        from != null ? UsageSummaries.formatDay(parseTime(from)) : null,
+                        to != null ? UsageSummaries.formatDay(parseTime(to)) : null);
+                if (sortOrder == null) {
+                    sortOrder = UsageSummaries.COLUMN_DAY + " ASC";
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown URI: " + uri);
+        }
+
+        Context context = getContext();
+        Cursor cursor = builder.query(DatabaseHelper.getInstance(context).getReadableDatabase(),
+                projection, selection, selectionArgs, null, null, sortOrder, limit);
+        cursor.setNotificationUri(context.getContentResolver(), uri);
+        return cursor;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        switch (URI_MATCHER.match(uri)) {
+            case EVENTS:
+                return "vnd.android.cursor.dir/vnd." + AUTHORITY + ".event";
+            case SESSIONS:
+                return "vnd.android.cursor.dir/vnd." + AUTHORITY + ".session";
+            case DAILY:
+                return "vnd.android.cursor.dir/vnd." + AUTHORITY + ".daily";
+            default:
+                return null;
+        }
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    // 数据变化后通知所有观察者（在写入路径中调用）
+    public static void notifyChange(Context context, Uri uri) {
+        context.getContentResolver().notifyChange(uri, null);
+    }
+
+    // 范围条件作为字面量拼入WHERE，这样调用者自己的selectionArgs不受影响
+    private static void appendRange(SQLiteQueryBuilder builder, String column, String from, String to) {
+        if (from != null) {
+            builder.appendWhere(column + " >= ");
+            builder.appendWhereEscapeString(from);
+        }
+        if (to != null) {
+            if (from != null) {
+                builder.appendWhere(" AND ");
+            }
+            builder.appendWhere(column + " < ");
+            builder.appendWhereEscapeString(to);
+        }
+    }
+
+    private static long parseTime(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time: " + value);
+        }
+    }
+
+    private static String parseLimit(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return String.valueOf(Math.max(0, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit: " + value);
+        }
+    }
+
+    private static Map<String, String> columns(String... names) {
+        Map<String, String> map = new HashMap<>();
+        for (String name : names) {
+            map.put(name, name);
+        }
+        return map;
+    }
+}
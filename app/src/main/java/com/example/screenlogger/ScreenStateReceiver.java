@@ -1,8 +1,11 @@
 package com.example.screenlogger;
 
+import android.app.KeyguardManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
+import android.os.PowerManager;
 import android.util.Log;
 
 public class ScreenStateReceiver extends BroadcastReceiver {
@@ -17,12 +20,38 @@ public class ScreenStateReceiver extends BroadcastReceiver {
             if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
                 // 屏幕亮起
                 ScreenStateService.saveScreenOnTime(context);
+                // 没有锁屏时用户随后可能直接打开应用，提前构建时间线；
+                // 有锁屏时解锁事件还会使缓存失效，留到解锁后再预取
+                KeyguardManager keyguardManager = (KeyguardManager) context.getSystemService(Context.KEYGUARD_SERVICE);
+                if (TimelineCache.isPrefetchEnabled(context)
+                        && (keyguardManager == null || !keyguardManager.isKeyguardLocked())) {
+                    TimelineCache.prefetch(context);
+                }
                 // 确保服务正在运行
                 Intent serviceIntent = new Intent(context, ScreenStateService.class);
                 context.startService(serviceIntent);
             } else if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
                 // 屏幕关闭
                 ScreenStateService.saveScreenOffTime(context);
+            } else if (Intent.ACTION_USER_PRESENT.equals(intent.getAction())) {
+                // 解锁
+                ScreenStateService.saveEvent(context, DatabaseHelper.EVENT_USER_PRESENT);
+                if (TimelineCache.isPrefetchEnabled(context)) {
+                    TimelineCache.prefetch(context);
+                }
+            } else if (Intent.ACTION_SHUTDOWN.equals(intent.getAction())) {
+                // 关机
+                ScreenStateService.saveEvent(context, DatabaseHelper.EVENT_SHUTDOWN);
+            } else if (Intent.ACTION_POWER_CONNECTED.equals(intent.getAction())) {
+                ScreenStateService.saveEvent(context, DatabaseHelper.EVENT_POWER_CONNECTED);
+            } else if (Intent.ACTION_POWER_DISCONNECTED.equals(intent.getAction())) {
+                ScreenStateService.saveEvent(context, DatabaseHelper.EVENT_POWER_DISCONNECTED);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                    && PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED.equals(intent.getAction())) {
+                // 广播本身不带状态，需要查询当前是否处于休眠模式
+                PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+                ScreenStateService.saveEvent(context, powerManager.isDeviceIdleMode()
+                        ? DatabaseHelper.EVENT_DOZE_ENTER : DatabaseHelper.EVENT_DOZE_EXIT);
             }
         }
     }
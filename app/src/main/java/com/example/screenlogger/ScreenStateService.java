@@ -3,25 +3,63 @@ package com.example.screenlogger;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
 import android.os.IBinder;
+import android.os.PowerManager;
 import android.util.Log;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
 
 public class ScreenStateService extends Service {
 
     private static final String TAG = "ScreenStateService";
 
+    private ScreenStateReceiver screenStateReceiver;
+
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "Service created");
+        // 这些广播只能动态注册，由服务持有接收器，界面关闭后仍能继续记录
+        screenStateReceiver = new ScreenStateReceiver();
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_USER_PRESENT);
+        filter.addAction(Intent.ACTION_SHUTDOWN);
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            filter.addAction(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED);
+        }
+        registerReceiver(screenStateReceiver, filter);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (screenStateReceiver != null) {
+            unregisterReceiver(screenStateReceiver);
+        }
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d(TAG, "Service started");
+        // 与其他设备交换增量记录（按最短间隔节流，在同步线程中执行）
+        final Context context = getApplicationContext();
+        SyncManager.requestSync(context);
+        // 计数器还没有今天的数据时，用数据库汇总初始化一次，之后只靠事件累加；
+        // 已是今天的数据时不查询数据库
+        if (TodayCounter.needsSeed(context, System.currentTimeMillis())) {
+            BackgroundLoader.execute("TodayCounter.seed", new Runnable() {
+                @Override
+                public void run() {
+                    UsageSummaries.Snapshot summary = DatabaseHelper.getInstance(context).getUsageSummary();
+                    TodayCounter.seed(context, summary.todayOnTime, summary.todayUnlocks, System.currentTimeMillis());
+                    refreshTodayViews(context);
+                }
+            });
+        }
         // 服务在被杀死后会尝试重启
         return START_STICKY;
     }
@@ -32,31 +70,46 @@ public class ScreenStateService extends Service {
     }
 
     public static void saveScreenOnTime(android.content.Context context) {
-        String currentTime = getCurrentTime();
-        DatabaseHelper dbHelper = new DatabaseHelper(context);
-        dbHelper.insertScreenEvent(DatabaseHelper.EVENT_SCREEN_ON, currentTime);
-        Log.d(TAG, "Screen on time saved: " + currentTime);
+        DatabaseHelper dbHelper = DatabaseHelper.getInstance(context);
+        dbHelper.insertScreenEvent(DatabaseHelper.EVENT_SCREEN_ON);
+        TodayCounter.onScreenOn(context, System.currentTimeMillis());
+        refreshTodayViews(context);
+        Log.d(TAG, "Screen on time saved");
     }
 
     public static void saveScreenOffTime(android.content.Context context) {
-        String currentTime = getCurrentTime();
-        DatabaseHelper dbHelper = new DatabaseHelper(context);
-        dbHelper.insertScreenEvent(DatabaseHelper.EVENT_SCREEN_OFF, currentTime);
-        Log.d(TAG, "Screen off time saved: " + currentTime);
+        DatabaseHelper dbHelper = DatabaseHelper.getInstance(context);
+        dbHelper.insertScreenEvent(DatabaseHelper.EVENT_SCREEN_OFF);
+        TodayCounter.onScreenOff(context, System.currentTimeMillis());
+        refreshTodayViews(context);
+        Log.d(TAG, "Screen off time saved");
+    }
+
+    // 记录其他类型的事件
+    public static void saveEvent(Context context, int eventType) {
+        DatabaseHelper.getInstance(context).insertScreenEvent(eventType);
+        if (eventType == DatabaseHelper.EVENT_USER_PRESENT) {
+            TodayCounter.onUnlock(context, System.currentTimeMillis());
+            refreshTodayViews(context);
+        } else if (eventType == DatabaseHelper.EVENT_SHUTDOWN) {
+            TodayCounter.onScreenOff(context, System.currentTimeMillis());
+        }
+        Log.d(TAG, DatabaseHelper.getEventTypeName(eventType) + " saved");
+    }
+
+    // 推送今日计数到桌面小部件和快捷设置磁贴
+    private static void refreshTodayViews(Context context) {
+        TodayWidgetProvider.updateAll(context);
+        TodayTileService.requestUpdate(context);
     }
 
     public static String getLastScreenOnTime(Context context) {
-        DatabaseHelper dbHelper = new DatabaseHelper(context);
+        DatabaseHelper dbHelper = DatabaseHelper.getInstance(context);
         return dbHelper.getLastScreenOnTime();
     }
 
     public static String getLastScreenOffTime(Context context) {
-        DatabaseHelper dbHelper = new DatabaseHelper(context);
+        DatabaseHelper dbHelper = DatabaseHelper.getInstance(context);
         return dbHelper.getLastScreenOffTime();
     }
-
-    private static String getCurrentTime() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-        return dateFormat.format(new Date());
-    }
 }
\ No newline at end of file
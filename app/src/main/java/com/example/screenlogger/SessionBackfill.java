@@ -0,0 +1,374 @@
+package com.example.screenlogger;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 根据本机的全部历史事件重新生成使用时段表及其派生的汇总表和分钟位图。
+ * 事件按_id分页流式读取并按本地日期切分，每攒够BATCH_EVENTS个事件（按整天切分）就在ForkJoin线程池中
+ * 按天并行配对，与之前各批的结果合并（跨批的使用时段在合并时拼接），写入已完成的使用时段后即丢弃，
+ * 内存占用只与一批的大小有关，与历史总量无关。
+ * 结果写入影子表（原表名加SHADOW_SUFFIX），每COMMIT_ROWS行提交一次，不会长时间占住写连接，
+ * 期间接收器照常记录事件，界面读取的仍是原表；追上最新的事件后，在一个短事务中处理剩余的事件并替换原表。
+ * 重建期间增量写入原表的使用时段和汇总随原表丢弃，它们对应的事件已经在重建中处理。
+ */
+public class SessionBackfill {
+
+    private static final String TAG = "SessionBackfill";
+
+    // 影子表的表名后缀
+    static final String SHADOW_SUFFIX = "_rebuild";
+
+    // 每批配对的事件数量（按整天切分，实际会略多）
+    private static final int BATCH_EVENTS = 50000;
+    // 每页查询的事件数量，每页单独查询，不在多个事务之间保持打开的Cursor
+    private static final int PAGE_EVENTS = 10000;
+    // 每个写事务最多写入的使用时段和解锁事件数量
+    private static final int COMMIT_ROWS = 1000;
+
+    private final SQLiteDatabase db;
+    private final SQLiteStatement statement;
+    private final ForkJoinPool pool = new ForkJoinPool();
+    private final PagedEventIterator events;
+    // 之前各批合并后的结果，其中的完整使用时段已经写入
+    private ChunkResult carried = new ChunkResult();
+    // 是否已经读到过解锁事件；开始记录解锁事件之前的旧数据以亮屏次数代替解锁次数
+    private boolean unlockSeen;
+
+    private int dayCount;
+    private int sessionCount;
+    private long pairTime;
+    private long writeTime;
+
+    private SessionBackfill(SQLiteDatabase db) {
+        this.db = db;
+        this.events = new PagedEventIterator(db);
+        this.statement = db.compileStatement("INSERT INTO " + DatabaseHelper.TABLE_SESSIONS + SHADOW_SUFFIX + " (" +
+                DatabaseHelper.COLUMN_START_TIME + ", " + DatabaseHelper.COLUMN_END_TIME + ", " +
+                DatabaseHelper.COLUMN_DURATION + ", " + DatabaseHelper.COLUMN_UNLOCKED + ", " +
+                DatabaseHelper.COLUMN_ZONE_OFFSET + ") VALUES (?, ?, ?, ?, ?)");
+    }
+
+    // 重新生成使用时段表、汇总表和分钟位图，返回生成的使用时段数量；不能在事务中调用。
+    // 替换的事务提交后，调用者需要丢弃分钟位图的内存缓存，见DatabaseHelper.rebuildSessions
+    public static int rebuild(SQLiteDatabase db) {
+        long begin = SystemClock.elapsedRealtime();
+
+        // 上次重建中断时留下的影子表
+        db.beginTransaction();
+        try {
+            dropShadowTables(db);
+            DatabaseHelper.createSessionsShadowTable(db, SHADOW_SUFFIX);
+            UsageSummaries.createTables(db, SHADOW_SUFFIX);
+            MinuteBitmapStore.createTable(db, SHADOW_SUFFIX);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        SessionBackfill backfill = new SessionBackfill(db);
+        try {
+            // 分批追上当前最新的事件
+            backfill.processAvailable();
+
+            // 追赶期间新记录的事件和替换在同一个事务中完成，之后的事件由增量维护写入新表
+            long swapStart = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                backfill.processAvailable();
+                DatabaseHelper.replaceSessionsTable(db, SHADOW_SUFFIX);
+                UsageSummaries.replaceTables(db, SHADOW_SUFFIX);
+                MinuteBitmapStore.replaceTable(db, SHADOW_SUFFIX);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.d(TAG, "Swapped rebuilt tables in " + (SystemClock.elapsedRealtime() - swapStart) + "ms");
+        } finally {
+            backfill.close();
+        }
+
+        Log.d(TAG, "Rebuilt " + backfill.sessionCount + " sessions from " + backfill.dayCount + " days in " +
+                (SystemClock.elapsedRealtime() - begin) + "ms (pair " + backfill.pairTime + "ms, write " +
+                backfill.writeTime + "ms)");
+        return backfill.sessionCount;
+    }
+
+    private static void dropShadowTables(SQLiteDatabase db) {
+        DatabaseHelper.dropSessionsShadowTable(db, SHADOW_SUFFIX);
+        UsageSummaries.dropTables(db, SHADOW_SUFFIX);
+        MinuteBitmapStore.dropTable(db, SHADOW_SUFFIX);
+    }
+
+    // 读取、配对并写入目前已记录的全部事件；末尾未配对的亮屏留在carried中，等之后的事件闭合
+    private void processAvailable() {
+        List<List<DatabaseHelper.ScreenEvent>> days = new ArrayList<>();
+        List<DatabaseHelper.ScreenEvent> unlocks = new ArrayList<>();
+        while (events.hasNext()) {
+            readBatch(days, unlocks);
+            dayCount += days.size();
+
+            long pairStart = SystemClock.elapsedRealtime();
+            carried = PairTask.merge(carried, pool.invoke(new PairTask(days, 0, days.size())));
+            days.clear();
+            long writeStart = SystemClock.elapsedRealtime();
+            pairTime += writeStart - pairStart;
+
+            write(carried.sessions, unlocks);
+            sessionCount += carried.sessions.size();
+            carried.sessions.clear();
+            unlocks.clear();
+            writeTime += SystemClock.elapsedRealtime() - writeStart;
+        }
+    }
+
+    // 在pool中按天并行配对已按本地日期切分的事件，返回其中完整的使用时段（供基准测试与串行配对比较）
+    static List<TimelineFragment.UsagePeriod> pairDays(ForkJoinPool pool, List<List<DatabaseHelper.ScreenEvent>> days) {
+        return pool.invoke(new PairTask(days, 0, days.size())).sessions;
+    }
+
+    // 读取至少BATCH_EVENTS个事件（或直到结束），按本地日期切分到days中，计入解锁次数的事件放入unlocks；
+    // 一天的事件不会被分到两批（读到当前最后一个事件时除外，之后新记录的事件在下一批中拼接）
+    private void readBatch(List<List<DatabaseHelper.ScreenEvent>> days, List<DatabaseHelper.ScreenEvent> unlocks) {
+        List<DatabaseHelper.ScreenEvent> currentDay = null;
+        int currentKey = 0;
+        int count = 0;
+        while (events.hasNext()) {
+            DatabaseHelper.ScreenEvent event = events.peek();
+            int key = TimeBuckets.localDay(event.getTime(), event.getZoneOffset());
+            if (currentDay == null || key != currentKey) {
+                if (count >= BATCH_EVENTS) {
+                    return;
+                }
+                currentKey = key;
+                currentDay = new ArrayList<>();
+                days.add(currentDay);
+            }
+            currentDay.add(events.next());
+            count++;
+
+            if (event.getEventType() == DatabaseHelper.EVENT_USER_PRESENT) {
+                unlockSeen = true;
+                unlocks.add(event);
+            } else if (event.getEventType() == DatabaseHelper.EVENT_SCREEN_ON && !unlockSeen) {
+                unlocks.add(event);
+            }
+        }
+    }
+
+    // 写入影子表，每COMMIT_ROWS行一个事务；在替换的事务中调用时成为嵌套事务，随替换一起提交
+    private void write(List<TimelineFragment.UsagePeriod> sessions, List<DatabaseHelper.ScreenEvent> unlocks) {
+        int total = sessions.size() + unlocks.size();
+        for (int from = 0; from < total; from += COMMIT_ROWS) {
+            int to = Math.min(total, from + COMMIT_ROWS);
+            db.beginTransaction();
+            try {
+                for (int i = from; i < to; i++) {
+                    if (i < sessions.size()) {
+                        writeSession(sessions.get(i));
+                    } else {
+                        DatabaseHelper.ScreenEvent unlock = unlocks.get(i - sessions.size());
+                        UsageSummaries.recordUnlock(db, SHADOW_SUFFIX, unlock.getTime(), unlock.getZoneOffset());
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    private void writeSession(TimelineFragment.UsagePeriod session) {
+        statement.bindLong(1, session.startTime);
+        statement.bindLong(2, session.endTime);
+        statement.bindLong(3, session.endTime - session.startTime);
+        statement.bindLong(4, session.unlocked ? 1 : 0);
+        statement.bindLong(5, session.zoneOffset);
+        statement.executeInsert();
+        UsageSummaries.recordSession(db, SHADOW_SUFFIX, session.startTime, session.endTime, session.zoneOffset);
+        MinuteBitmapStore.recordSession(db, SHADOW_SUFFIX, session.startTime, session.endTime, session.zoneOffset);
+    }
+
+    private void close() {
+        events.close();
+        pool.shutdown();
+        statement.close();
+    }
+
+    // 按_id分页读取参与配对的事件和解锁事件，可以先查看下一个事件再决定是否取出；
+    // 读完之后再次调用hasNext()会查询这期间新记录的事件
+    private static class PagedEventIterator {
+        private static final String QUERY = "SELECT " + DatabaseHelper.COLUMN_ID + ", " +
+                DatabaseHelper.COLUMN_EVENT_TYPE + ", " + DatabaseHelper.COLUMN_TIME + ", " +
+                DatabaseHelper.COLUMN_ELAPSED_REALTIME + ", " + DatabaseHelper.COLUMN_ZONE_OFFSET +
+                " FROM " + DatabaseHelper.TABLE_NAME + " WHERE " + DatabaseHelper.COLUMN_ID + " > ? AND " +
+                DatabaseHelper.LOCAL_EVENTS + " AND (" +
+                DatabaseHelper.COLUMN_EVENT_TYPE + " IN " + DatabaseHelper.SESSION_EVENT_TYPES + " OR " +
+                DatabaseHelper.COLUMN_EVENT_TYPE + " = " + DatabaseHelper.EVENT_USER_PRESENT + ")" +
+                " ORDER BY " + DatabaseHelper.COLUMN_ID + " ASC LIMIT " + PAGE_EVENTS;
+
+        private final SQLiteDatabase db;
+        private BackfillEventIterator page;
+        private DatabaseHelper.ScreenEvent peeked;
+        // 已读取的最后一个事件的_id
+        private long lastId;
+
+        PagedEventIterator(SQLiteDatabase db) {
+            this.db = db;
+        }
+
+        boolean hasNext() {
+            if (peeked != null || (page != null && page.hasNext())) {
+                return true;
+            }
+            page = new BackfillEventIterator(db.rawQuery(QUERY, new String[]{String.valueOf(lastId)}));
+            return page.hasNext();
+        }
+
+        DatabaseHelper.ScreenEvent next() {
+            DatabaseHelper.ScreenEvent event = peek();
+            peeked = null;
+            return event;
+        }
+
+        DatabaseHelper.ScreenEvent peek() {
+            if (peeked == null) {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                peeked = page.next();
+                lastId = peeked.getId();
+            }
+            return peeked;
+        }
+
+        void close() {
+            if (page != null) {
+                page.close();
+            }
+        }
+    }
+
+    private static class BackfillEventIterator extends CursorIterator<DatabaseHelper.ScreenEvent> {
+
+        BackfillEventIterator(Cursor cursor) {
+            super(cursor);
+        }
+
+        @Override
+        protected DatabaseHelper.ScreenEvent read(Cursor cursor) {
+            DatabaseHelper.ScreenEvent event = new DatabaseHelper.ScreenEvent();
+            event.setId(cursor.getInt(0));
+            event.setEventType(cursor.getInt(1));
+            event.setTime(cursor.getLong(2));
+            event.setElapsedRealtime(cursor.getLong(3));
+            event.setZoneOffset(cursor.getInt(4));
+            return event;
+        }
+    }
+
+    // 一段连续日期的配对结果
+    private static class ChunkResult {
+        // 按时间顺序排列的完整使用时段
+        final List<TimelineFragment.UsagePeriod> sessions = new ArrayList<>();
+        // 在任何亮屏事件之前出现的第一个熄屏、关机或开机事件，用于闭合前一段遗留的亮屏，没有则为null
+        DatabaseHelper.ScreenEvent leadingOff;
+        // leadingOff之前是否有解锁事件
+        boolean leadingUnlocked;
+        // 末尾尚未配对的亮屏事件，没有则为null
+        DatabaseHelper.ScreenEvent trailingOn;
+        // trailingOn之后是否有解锁事件
+        boolean trailingUnlocked;
+        // 该段内是否有参与配对的事件
+        boolean hasEvents;
+    }
+
+    private static class PairTask extends RecursiveTask<ChunkResult> {
+        private final List<List<DatabaseHelper.ScreenEvent>> days;
+        private final int from;
+        private final int to;
+
+        PairTask(List<List<DatabaseHelper.ScreenEvent>> days, int from, int to) {
+            this.days = days;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ChunkResult compute() {
+            if (to - from == 1) {
+                return pairDay(days.get(from));
+            }
+            int mid = (from + to) >>> 1;
+            PairTask left = new PairTask(days, from, mid);
+            PairTask right = new PairTask(days, mid, to);
+            left.fork();
+            ChunkResult rightResult = right.compute();
+            return merge(left.join(), rightResult);
+        }
+
+        private static ChunkResult pairDay(List<DatabaseHelper.ScreenEvent> dayEvents) {
+            ChunkResult result = new ChunkResult();
+            for (DatabaseHelper.ScreenEvent event : dayEvents) {
+                int eventType = event.getEventType();
+                if (eventType == DatabaseHelper.EVENT_USER_PRESENT) {
+                    result.leadingUnlocked = true;
+                } else {
+                    result.hasEvents = true;
+                    if (eventType != DatabaseHelper.EVENT_SCREEN_ON) {
+                        result.leadingOff = event;
+                    }
+                    break;
+                }
+            }
+            // 复用时间线的配对逻辑
+            result.trailingOn = TimelineFragment.pairUsagePeriods(dayEvents, result.sessions);
+            for (int i = dayEvents.size() - 1; i >= 0 && result.trailingOn != null; i--) {
+                int eventType = dayEvents.get(i).getEventType();
+                if (eventType == DatabaseHelper.EVENT_USER_PRESENT) {
+                    result.trailingUnlocked = true;
+                } else {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        // 合并相邻两段的结果，拼接跨越分界的使用时段
+        static ChunkResult merge(ChunkResult left, ChunkResult right) {
+            // 只有解锁事件的一段没有边界，把解锁状态传递给相邻一段
+            if (!left.hasEvents) {
+                right.leadingUnlocked |= left.leadingUnlocked;
+                return right;
+            }
+            if (!right.hasEvents) {
+                left.trailingUnlocked |= right.leadingUnlocked;
+                return left;
+            }
+            ChunkResult merged = new ChunkResult();
+            merged.hasEvents = true;
+            merged.leadingOff = left.leadingOff;
+            merged.leadingUnlocked = left.leadingUnlocked;
+            merged.trailingOn = right.trailingOn;
+            merged.trailingUnlocked = right.trailingUnlocked;
+            merged.sessions.addAll(left.sessions);
+            // 中间重启过（开机事件）时遗留的亮屏没有可信的结束时间，不生成使用时段
+            if (left.trailingOn != null && right.leadingOff != null
+                    && right.leadingOff.getEventType() != DatabaseHelper.EVENT_BOOT) {
+                merged.sessions.add(TimelineFragment.createSession(left.trailingOn, right.leadingOff,
+                        left.trailingUnlocked || right.leadingUnlocked));
+            }
+            merged.sessions.addAll(right.sessions);
+            return merged;
+        }
+    }
+}
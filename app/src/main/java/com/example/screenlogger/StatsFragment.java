@@ -0,0 +1,215 @@
+package com.example.screenlogger;
+
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.text.InputType;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.CompoundButton;
+import android.widget.EditText;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.widget.SwitchCompat;
+import androidx.fragment.app.Fragment;
+
+import java.util.Locale;
+
+public class StatsFragment extends Fragment {
+    private static final int RECENT_DAYS = 7;
+
+    private TextView todayUnlocksTextView;
+    private TextView averageUnlocksTextView;
+    private TextView medianSessionTextView;
+    private TextView longestOffTextView;
+    private TextView weekOnTimeTextView;
+    private TextView weekLongestTextView;
+    private UsageHeatmapView heatmapView;
+    private CalendarHeatmapView calendarHeatmapView;
+    private SwitchCompat prefetchSwitch;
+    private TextView prefetchStatsTextView;
+    private TextView syncStatusTextView;
+
+    @Nullable
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.fragment_stats, container, false);
+
+        // 初始化UI组件
+        todayUnlocksTextView = view.findViewById(R.id.today_unlocks_text);
+        averageUnlocksTextView = view.findViewById(R.id.average_unlocks_text);
+        medianSessionTextView = view.findViewById(R.id.median_session_text);
+        longestOffTextView = view.findViewById(R.id.longest_off_text);
+        weekOnTimeTextView = view.findViewById(R.id.week_on_time_text);
+        weekLongestTextView = view.findViewById(R.id.week_longest_text);
+        heatmapView = view.findViewById(R.id.heatmap_view);
+        calendarHeatmapView = view.findViewById(R.id.calendar_heatmap_view);
+        prefetchSwitch = view.findViewById(R.id.prefetch_switch);
+        prefetchStatsTextView = view.findViewById(R.id.prefetch_stats_text);
+
+        // 时间线预取开关，写入偏好后由ScreenStateReceiver读取
+        prefetchSwitch.setChecked(TimelineCache.isPrefetchEnabled(requireContext()));
+        prefetchSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                TimelineCache.setPrefetchEnabled(buttonView.getContext(), isChecked);
+            }
+        });
+
+        // 同步口令需要Keystore，低版本系统不显示
+        syncStatusTextView = view.findViewById(R.id.sync_status_text);
+        Button syncPassphraseButton = view.findViewById(R.id.sync_passphrase_button);
+        if (SyncManager.isEncryptionSupported()) {
+            syncPassphraseButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    showPassphraseDialog();
+                }
+            });
+            showSyncStatus();
+        } else {
+            syncPassphraseButton.setVisibility(View.GONE);
+            syncStatusTextView.setVisibility(View.GONE);
+        }
+
+        return view;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        // 只有当前可见的Tab会进入resumed状态，因此只加载可见页面的数据
+        updateStats();
+    }
+
+    public void updateStats() {
+        if (getContext() == null) {
+            return;
+        }
+
+        // 在后台线程读取预先计算好的汇总数据
+        final DatabaseHelper dbHelper = DatabaseHelper.getInstance(getContext());
+        BackgroundLoader.load("StatsFragment.load", new BackgroundLoader.Task<StatsData>() {
+            @Override
+            public StatsData load() {
+                StatsData data = new StatsData(dbHelper.getUsageSummary(), dbHelper.getMinuteBitmap());
+                loadRecentWeek(dbHelper, data, System.currentTimeMillis());
+                return data;
+            }
+        }, new BackgroundLoader.Callback<StatsData>() {
+            @Override
+            public void onLoaded(StatsData result) {
+                showStats(result);
+            }
+        });
+    }
+
+    // 近7天（含今天）的日均亮屏时长读取每日汇总表，最长一次使用走时长索引，都只读少量行
+    private static void loadRecentWeek(DatabaseHelper dbHelper, StatsData data, long now) {
+        int today = TimeBuckets.localDay(now, TimeBuckets.zoneOffset(now));
+        CursorIterator<DatabaseHelper.DailyUsage> days = dbHelper.queryDailyUsage(today - (RECENT_DAYS - 1), today + 1);
+        long onTime = 0;
+        while (days.hasNext()) {
+            onTime += days.next().getOnTime();
+        }
+        data.weekAverageOnTime = onTime / RECENT_DAYS;
+
+        CursorIterator<DatabaseHelper.Session> longest = dbHelper.queryLongestSessions(
+                now - RECENT_DAYS * TimeBuckets.DAY_MILLIS, now, 1);
+        if (longest.hasNext()) {
+            data.weekLongestSession = longest.next().getDuration();
+        }
+        longest.close();
+    }
+
+    private void showStats(StatsData data) {
+        UsageSummaries.Snapshot snapshot = data.snapshot;
+        if (getView() == null) {
+            return;
+        }
+
+        todayUnlocksTextView.setText(getString(R.string.stats_today_unlocks, snapshot.todayUnlocks));
+        averageUnlocksTextView.setText(getString(R.string.stats_average_unlocks,
+                String.format(Locale.getDefault(), "%.1f", snapshot.averageUnlocksPerDay)));
+        medianSessionTextView.setText(getString(R.string.stats_median_session, formatDuration(snapshot.medianSessionLength)));
+        longestOffTextView.setText(getString(R.string.stats_longest_off, formatDuration(snapshot.longestOffStreak)));
+        weekOnTimeTextView.setText(getString(R.string.stats_week_on_time, formatDuration(data.weekAverageOnTime)));
+        weekLongestTextView.setText(getString(R.string.stats_week_longest, formatDuration(data.weekLongestSession)));
+        heatmapView.setWeekdayHourOnTime(snapshot.weekdayHourOnTime);
+        calendarHeatmapView.setMinuteBitmap(data.bitmap);
+        if (SyncManager.isEncryptionSupported()) {
+            showSyncStatus();
+        }
+        TimelineCache.Stats cacheStats = TimelineCache.getStats();
+        prefetchStatsTextView.setText(getString(R.string.stats_prefetch_counters, cacheStats.hits, cacheStats.misses,
+                cacheStats.prefetches, cacheStats.wasted));
+
+        // 数据已显示，通知系统启动完成（用于统计完全显示耗时）
+        requireActivity().reportFullyDrawn();
+    }
+
+    private void showSyncStatus() {
+        syncStatusTextView.setText(SyncManager.hasPassphrase(requireContext())
+                ? R.string.sync_encryption_on : R.string.sync_encryption_off);
+    }
+
+    // 输入同步口令；保存和清除都在同步线程中进行，完成后重新导出本机记录
+    private void showPassphraseDialog() {
+        final EditText input = new EditText(requireContext());
+        input.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD);
+        input.setHint(R.string.sync_passphrase_hint);
+        AlertDialog.Builder builder = new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.sync_passphrase_title)
+                .setView(input)
+                .setPositiveButton(R.string.sync_passphrase_save, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String passphrase = input.getText().toString();
+                        if (!passphrase.isEmpty()) {
+                            updatePassphrase(passphrase);
+                        }
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null);
+        if (SyncManager.hasPassphrase(requireContext())) {
+            builder.setNeutralButton(R.string.sync_passphrase_clear, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    updatePassphrase(null);
+                }
+            });
+        }
+        builder.show();
+    }
+
+    private void updatePassphrase(String passphrase) {
+        SyncManager.setPassphrase(requireContext(), passphrase);
+        syncStatusTextView.setText(R.string.sync_encryption_updating);
+    }
+
+    // 将毫秒时长格式化为“X小时Y分钟”或“X分Y秒”
+    private static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        if (seconds >= 3600) {
+            return String.format(Locale.getDefault(), "%d小时%d分钟", seconds / 3600, seconds % 3600 / 60);
+        }
+        return String.format(Locale.getDefault(), "%d分%d秒", seconds / 60, seconds % 60);
+    }
+
+    // 统计页面一次加载的全部数据
+    private static class StatsData {
+        final UsageSummaries.Snapshot snapshot;
+        final MinuteBitmap bitmap;
+        long weekAverageOnTime;
+        long weekLongestSession;
+
+        StatsData(UsageSummaries.Snapshot snapshot, MinuteBitmap bitmap) {
+            this.snapshot = snapshot;
+            this.bitmap = bitmap;
+        }
+    }
+}
@@ -0,0 +1,930 @@
+package com.example.screenlogger;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 通过共享目录在多台设备之间同步屏幕事件。
+ * 每台设备把高水位之后的本机事件导出为增量文件，再把其他设备尚未合并的增量文件
+ * 按时间做多路归并写入本地数据库，依靠其他设备事件的 (设备, 毫秒时间, 类型) 唯一索引实现幂等去重。
+ * 导入耗时只与增量大小有关，与历史总量无关。
+ *
+ * 增量文件名为 设备ID_起始ID_结束ID.changes，第一行为设备ID，
+ * 之后每行为 “时间戳\t事件类型代码\tUTC毫秒时间\t时区偏移\t导出设备上的事件ID”，按UTC时间升序排列。
+ * 旧版本导出的文件每行只有前两列或前四列，缺少的UTC时间按本机当前时区换算，缺少事件ID的行总是合并。
+ * 每台设备合并后把各设备的高水位写入 设备ID.merged（每行 “设备ID\t已合并的结束ID”），
+ * 其他设备据此判断哪些本机文件已被所有设备合并。
+ * 设置了同步口令时，增量文件用ChangeSetCipher分块认证加密，共享目录中不再有明文记录，
+ * 也不接受明文或被篡改的文件。口令本身不保存，只保存由它派生、再经Android Keystore包装的密钥（需要API 26）。
+ * 派生密钥用的随机盐保存在共享目录的SALT_FILE中，由第一台设置口令的设备生成，同一目录下的设备共用。
+ *
+ * 同步最多每MIN_SYNC_INTERVAL执行一次，在单独的线程中进行，不占用界面加载数据的BackgroundLoader线程。
+ * 本机的增量文件超过COMPACT_THRESHOLD个时，把已被所有已知设备合并过的那部分合并为一个文件，
+ * 合并后的文件不会高于任何设备的高水位，不会被重新读取；尚未被合并的文件保持不变。
+ */
+public class SyncManager {
+
+    private static final String TAG = "SyncManager";
+
+    // 同步状态不放在备份的ScreenLoggerPrefs中，避免恢复备份后两台设备使用相同的设备ID
+    private static final String PREFS_NAME = "ScreenLoggerSync";
+    private static final String KEY_DEVICE_ID = "device_id";
+    private static final String KEY_EXPORTED_ID = "exported_id";
+    private static final String KEY_MERGED_PREFIX = "merged_";
+    private static final String KEY_WRAPPED_KEY = "wrapped_key";
+    // 派生当前密钥时使用的盐，与共享目录中的盐不一致时不同步
+    private static final String KEY_SALT = "salt";
+    private static final String KEY_LAST_SYNC = "last_sync";
+
+    private static final String FILE_SUFFIX = ".changes";
+    private static final String ACK_SUFFIX = ".merged";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // 同步组的盐，所有设备用它和相同的口令派生相同的密钥
+    private static final String SALT_FILE = "sync_group.salt";
+
+    // 每个事务合并的事件数量
+    private static final int BATCH_SIZE = 5000;
+
+    // 两次同步之间的最短间隔
+    private static final long MIN_SYNC_INTERVAL = TimeBuckets.HOUR_MILLIS;
+    // 本机增量文件超过这个数量时合并
+    private static final int COMPACT_THRESHOLD = 8;
+
+    private static final ExecutorService SYNC_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // 用于包装同步密钥的Keystore密钥，不可导出
+    private static final String KEYSTORE_PROVIDER = "AndroidKeyStore";
+    private static final String KEYSTORE_ALIAS = "screen_logger_sync";
+    private static final int WRAP_IV_LENGTH = 12;
+
+    // 解包后的同步密钥，由SyncManager.class保护
+    private static SecretKey cachedKey;
+    private static boolean keyLoaded;
+
+    private SyncManager() {
+    }
+
+    // 获取本机的设备ID，首次调用时生成
+    public static synchronized String getDeviceId(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String deviceId = prefs.getString(KEY_DEVICE_ID, null);
+        if (deviceId == null) {
+            deviceId = UUID.randomUUID().toString();
+            prefs.edit().putString(KEY_DEVICE_ID, deviceId).apply();
+        }
+        return deviceId;
+    }
+
+    // 加密同步需要Android Keystore中的对称密钥（API 23）和PBKDF2WithHmacSHA256（API 26）
+    public static boolean isEncryptionSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+    }
+
+    public static boolean hasPassphrase(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).contains(KEY_WRAPPED_KEY);
+    }
+
+    // 设置同步口令，所有设备需使用相同的口令；传入null或空串时恢复明文导出。
+    // 在同步线程中派生并保存密钥，然后删除本机已导出的文件，按新口令重新导出全部本机事件，
+    // 共享目录中不会留下用旧口令加密或明文的本机文件
+    public static void setPassphrase(Context context, final String passphrase) {
+        final Context appContext = context.getApplicationContext();
+        SYNC_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Trace.beginSection("SyncManager.setPassphrase");
+                try {
+                    File syncDir = getDefaultSyncDir(appContext);
+                    if (passphrase == null || passphrase.isEmpty()) {
+                        storeKey(appContext, null, null);
+                    } else {
+                        if (syncDir == null) {
+                            throw new IOException("Sync directory is not available");
+                        }
+                        byte[] salt = loadOrCreateSalt(syncDir);
+                        storeKey(appContext, ChangeSetCipher.deriveKey(passphrase, salt), salt);
+                    }
+                    if (syncDir != null) {
+                        deleteOwnChanges(appContext, syncDir);
+                        sync(appContext, syncDir);
+                    }
+                } catch (GeneralSecurityException | IOException e) {
+                    Log.e(TAG, "Cannot set sync passphrase", e);
+                } finally {
+                    Trace.endSection();
+                }
+            }
+        });
+    }
+
+    // 读取共享目录中同步组的盐，还没有时生成一个。
+    // 两台设备同时生成时后改名的一方覆盖前者，先写入的设备在下次同步时发现盐不一致，需要重新输入口令
+    private static byte[] loadOrCreateSalt(File syncDir) throws IOException {
+        File file = new File(syncDir, SALT_FILE);
+        if (!file.exists()) {
+            if (!syncDir.exists() && !syncDir.mkdirs()) {
+                throw new IOException("Cannot create " + syncDir);
+            }
+            writeSalt(syncDir, ChangeSetCipher.newSalt());
+        }
+        return readSalt(file);
+    }
+
+    private static void writeSalt(File syncDir, byte[] salt) throws IOException {
+        File temp = new File(syncDir, SALT_FILE + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(salt);
+        } finally {
+            out.close();
+        }
+        commitFile(temp, new File(syncDir, SALT_FILE));
+    }
+
+    private static byte[] readSalt(File file) throws IOException {
+        byte[] salt = new byte[ChangeSetCipher.SALT_LENGTH];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int total = 0;
+            int read;
+            while (total < salt.length && (read = in.read(salt, total, salt.length - total)) > 0) {
+                total += read;
+            }
+            if (total != salt.length || in.read() >= 0) {
+                throw new IOException("Invalid sync salt file");
+            }
+        } finally {
+            in.close();
+        }
+        return salt;
+    }
+
+    // 设置了口令时，确认共享目录中的盐就是派生密钥时用的盐；目录被清空时写回原来的盐。
+    // 不一致时抛出IOException，不导出也不合并，避免用其他设备无法解密的密钥写文件
+    private static void checkSalt(SharedPreferences prefs, File syncDir) throws IOException {
+        if (!prefs.contains(KEY_WRAPPED_KEY)) {
+            return;
+        }
+        String stored = prefs.getString(KEY_SALT, null);
+        if (stored == null) {
+            throw new IOException("Sync passphrase was set by an older version, set it again");
+        }
+        byte[] salt = Base64.decode(stored, Base64.NO_WRAP);
+        File file = new File(syncDir, SALT_FILE);
+        if (!file.exists()) {
+            if (!syncDir.exists() && !syncDir.mkdirs()) {
+                throw new IOException("Cannot create " + syncDir);
+            }
+            writeSalt(syncDir, salt);
+        } else if (!Arrays.equals(salt, readSalt(file))) {
+            throw new IOException("Sync group salt changed, set the sync passphrase again");
+        }
+    }
+
+    // 保存经Keystore包装的密钥（IV + 密文）和派生它的盐，key为null时清除
+    private static synchronized void storeKey(Context context, SecretKey key, byte[] salt)
+            throws GeneralSecurityException, IOException {
+        SharedPreferences.Editor editor = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+        if (key == null) {
+            editor.remove(KEY_WRAPPED_KEY);
+            editor.remove(KEY_SALT);
+        } else {
+            if (!isEncryptionSupported()) {
+                throw new GeneralSecurityException("Sync encryption requires API 26");
+            }
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, getWrappingKey());
+            byte[] iv = cipher.getIV();
+            byte[] wrapped = cipher.doFinal(key.getEncoded());
+            byte[] stored = new byte[iv.length + wrapped.length];
+            System.arraycopy(iv, 0, stored, 0, iv.length);
+            System.arraycopy(wrapped, 0, stored, iv.length, wrapped.length);
+            editor.putString(KEY_WRAPPED_KEY, Base64.encodeToString(stored, Base64.NO_WRAP));
+            editor.putString(KEY_SALT, Base64.encodeToString(salt, Base64.NO_WRAP));
+        }
+        // 必须在导出之前落盘，否则进程被杀后可能按旧设置导出
+        if (!editor.commit()) {
+            throw new IOException("Cannot save sync key");
+        }
+        cachedKey = key;
+        keyLoaded = true;
+    }
+
+    // 读取同步密钥，没有设置口令时返回null；无法解包（如Keystore被清除）时抛出IOException，不会退回明文导出
+    private static synchronized SecretKey getKey(SharedPreferences prefs) throws IOException {
+        if (keyLoaded) {
+            return cachedKey;
+        }
+        String stored = prefs.getString(KEY_WRAPPED_KEY, null);
+        if (stored != null) {
+            if (!isEncryptionSupported()) {
+                throw new IOException("Sync encryption requires API 26");
+            }
+            try {
+                byte[] bytes = Base64.decode(stored, Base64.NO_WRAP);
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.DECRYPT_MODE, getWrappingKey(),
+                        new GCMParameterSpec(128, bytes, 0, WRAP_IV_LENGTH));
+                byte[] encoded = cipher.doFinal(bytes, WRAP_IV_LENGTH, bytes.length - WRAP_IV_LENGTH);
+                cachedKey = new SecretKeySpec(encoded, "AES");
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                throw new IOException("Cannot unwrap sync key, set the sync passphrase again", e);
+            }
+        }
+        keyLoaded = true;
+        return cachedKey;
+    }
+
+    @RequiresApi(Build.VERSION_CODES.M)
+    private static SecretKey getWrappingKey() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE_PROVIDER);
+        keyStore.load(null);
+        if (keyStore.containsAlias(KEYSTORE_ALIAS)) {
+            return (SecretKey) keyStore.getKey(KEYSTORE_ALIAS, null);
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE_PROVIDER);
+        generator.init(new KeyGenParameterSpec.Builder(KEYSTORE_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .build());
+        return generator.generateKey();
+    }
+
+    // 删除本机导出的全部文件并重置导出高水位，下次导出包含全部本机事件
+    private static void deleteOwnChanges(Context context, File syncDir) {
+        String deviceId = getDeviceId(context);
+        File[] files = syncDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    name = name.substring(0, name.length() - TEMP_SUFFIX.length());
+                }
+                ChangeSetName changeSet = ChangeSetName.parse(name);
+                if (changeSet != null && changeSet.deviceId.equals(deviceId) && !file.delete()) {
+                    Log.w(TAG, "Cannot delete " + file.getName());
+                }
+            }
+        }
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().putLong(KEY_EXPORTED_ID, 0).apply();
+    }
+
+    // 默认的同步目录
+    public static File getDefaultSyncDir(Context context) {
+        return context.getExternalFilesDir("sync");
+    }
+
+    // 请求一次后台同步，距上次同步不足MIN_SYNC_INTERVAL时直接返回；每次亮屏都会调用，需要足够轻量
+    public static void requestSync(Context context) {
+        final Context appContext = context.getApplicationContext();
+        SharedPreferences prefs = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long now = System.currentTimeMillis();
+        long lastSync = prefs.getLong(KEY_LAST_SYNC, 0);
+        // 系统时间被调回时也允许同步
+        if (now >= lastSync && now - lastSync < MIN_SYNC_INTERVAL) {
+            return;
+        }
+        prefs.edit().putLong(KEY_LAST_SYNC, now).apply();
+        SYNC_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Trace.beginSection("SyncManager.sync");
+                try {
+                    sync(appContext, getDefaultSyncDir(appContext));
+                } finally {
+                    Trace.endSection();
+                }
+            }
+        });
+    }
+
+    // 导出、整理本机文件并合并
+    public static void sync(Context context, File syncDir) {
+        if (syncDir == null) {
+            return;
+        }
+        try {
+            checkSalt(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE), syncDir);
+        } catch (IOException e) {
+            Log.e(TAG, "Sync skipped", e);
+            return;
+        }
+        try {
+            exportChanges(context, syncDir);
+        } catch (IOException e) {
+            Log.e(TAG, "Export failed", e);
+        }
+        // 整理失败时保留原文件，不影响合并
+        try {
+            compactChanges(context, syncDir);
+        } catch (IOException e) {
+            Log.e(TAG, "Compaction failed", e);
+        }
+        try {
+            mergeChanges(context, syncDir);
+        } catch (IOException e) {
+            Log.e(TAG, "Merge failed", e);
+        }
+        try {
+            writeAck(context, syncDir);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot publish merge watermarks", e);
+        }
+    }
+
+    // 把本机对各设备的高水位写入共享目录，内容没有变化时不重写
+    private static void writeAck(Context context, File syncDir) throws IOException {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        StringBuilder content = new StringBuilder();
+        List<String> keys = new ArrayList<>(prefs.getAll().keySet());
+        Collections.sort(keys);
+        for (String key : keys) {
+            if (key.startsWith(KEY_MERGED_PREFIX)) {
+                content.append(key.substring(KEY_MERGED_PREFIX.length())).append('\t')
+                        .append(prefs.getLong(key, 0)).append('\n');
+            }
+        }
+        File target = new File(syncDir, getDeviceId(context) + ACK_SUFFIX);
+        if (target.exists() && content.toString().equals(readText(target))) {
+            return;
+        }
+        if (!syncDir.exists() && !syncDir.mkdirs()) {
+            throw new IOException("Cannot create " + syncDir);
+        }
+        File temp = new File(syncDir, target.getName() + TEMP_SUFFIX);
+        OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+        try {
+            writer.write(content.toString());
+        } finally {
+            writer.close();
+        }
+        commitFile(temp, target);
+    }
+
+    // 其他所有已知设备都已合并的本机事件ID上限：有增量文件或高水位文件的设备都算已知设备，
+    // 没有高水位文件或其中没有本机的设备按0计；没有其他设备时返回Long.MAX_VALUE
+    private static long getAckedId(File[] files, String deviceId) throws IOException {
+        Set<String> peers = new HashSet<>();
+        Map<String, Long> acked = new HashMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            ChangeSetName changeSet = ChangeSetName.parse(name);
+            if (changeSet != null) {
+                peers.add(changeSet.deviceId);
+            } else if (name.endsWith(ACK_SUFFIX)) {
+                String peer = name.substring(0, name.length() - ACK_SUFFIX.length());
+                peers.add(peer);
+                for (String line : readText(file).split("\n")) {
+                    String[] fields = line.split("\t");
+                    if (fields.length == 2 && fields[0].equals(deviceId)) {
+                        try {
+                            acked.put(peer, Long.parseLong(fields[1]));
+                        } catch (NumberFormatException e) {
+                            Log.w(TAG, "Invalid watermark in " + name);
+                        }
+                    }
+                }
+            }
+        }
+        peers.remove(deviceId);
+        long ackedId = Long.MAX_VALUE;
+        for (String peer : peers) {
+            Long id = acked.get(peer);
+            ackedId = Math.min(ackedId, id == null ? 0 : id);
+        }
+        return ackedId;
+    }
+
+    private static String readText(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            StringBuilder text = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                text.append(line).append('\n');
+            }
+            return text.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    // 把上次导出之后的本机事件写入一个增量文件，没有新事件时返回null
+    public static File exportChanges(Context context, File syncDir) throws IOException {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long exportedId = prefs.getLong(KEY_EXPORTED_ID, 0);
+        String deviceId = getDeviceId(context);
+
+        SQLiteDatabase db = DatabaseHelper.getInstance(context).getReadableDatabase();
+        Cursor range = db.rawQuery("SELECT MIN(" + DatabaseHelper.COLUMN_ID + "), MAX(" + DatabaseHelper.COLUMN_ID +
+                ") FROM " + DatabaseHelper.TABLE_NAME + " WHERE " + DatabaseHelper.LOCAL_EVENTS + " AND " +
+                DatabaseHelper.COLUMN_ID + " > ?", new String[]{String.valueOf(exportedId)});
+        long firstId = -1;
+        long lastId = -1;
+        if (range.moveToFirst() && !range.isNull(0)) {
+            firstId = range.getLong(0);
+            lastId = range.getLong(1);
+        }
+        range.close();
+        if (lastId < 0) {
+            return null;
+        }
+
+        if (!syncDir.exists() && !syncDir.mkdirs()) {
+            throw new IOException("Cannot create " + syncDir);
+        }
+        String name = deviceId + "_" + firstId + "_" + lastId + FILE_SUFFIX;
+        File temp = new File(syncDir, name + TEMP_SUFFIX);
+        File target = new File(syncDir, name);
+
+        Cursor cursor = db.rawQuery("SELECT " + DatabaseHelper.COLUMN_TIMESTAMP + ", " +
+                DatabaseHelper.COLUMN_EVENT_TYPE + ", " + DatabaseHelper.COLUMN_TIME + ", " +
+                DatabaseHelper.COLUMN_ZONE_OFFSET + ", " + DatabaseHelper.COLUMN_ID + " FROM " + DatabaseHelper.TABLE_NAME +
+                " WHERE " + DatabaseHelper.LOCAL_EVENTS + " AND " + DatabaseHelper.COLUMN_ID + " > ? AND " +
+                DatabaseHelper.COLUMN_ID + " <= ? ORDER BY " + DatabaseHelper.COLUMN_TIME + " ASC",
+                new String[]{String.valueOf(exportedId), String.valueOf(lastId)});
+        long start = SystemClock.elapsedRealtime();
+        int count = 0;
+        BufferedWriter writer;
+        try {
+            writer = openWriter(temp, prefs, deviceId);
+        } catch (IOException e) {
+            cursor.close();
+            throw e;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                writeEvent(writer, cursor.getString(0), cursor.getInt(1), cursor.getLong(2), cursor.getInt(3),
+                        cursor.getLong(4));
+                count++;
+            }
+        } finally {
+            cursor.close();
+            writer.close();
+        }
+
+        commitFile(temp, target);
+        prefs.edit().putLong(KEY_EXPORTED_ID, lastId).apply();
+        Log.d(TAG, "Exported " + count + " events to " + target.getName() + " in " +
+                (SystemClock.elapsedRealtime() - start) + " ms");
+        return target;
+    }
+
+    // 本机增量文件过多时，把结束ID不高于所有已知设备高水位的文件按时间归并为一个，再删除原来的文件。
+    // 这些文件的ID范围是连续的，合并后的文件与尚未被合并的文件不重叠，其他设备不会重新读取它；
+    // 之后加入的设备读取它一次即可。有设备长期不同步时不整理
+    static File compactChanges(Context context, File syncDir) throws IOException {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String deviceId = getDeviceId(context);
+        File[] files = syncDir.listFiles();
+        if (files == null) {
+            return null;
+        }
+        int ownCount = 0;
+        for (File file : files) {
+            ChangeSetName changeSet = ChangeSetName.parse(file.getName());
+            if (changeSet != null && changeSet.deviceId.equals(deviceId)) {
+                ownCount++;
+            }
+        }
+        if (ownCount <= COMPACT_THRESHOLD) {
+            return null;
+        }
+        long ackedId = getAckedId(files, deviceId);
+        List<ChangeSetName> changeSets = new ArrayList<>();
+        for (File file : files) {
+            ChangeSetName changeSet = ChangeSetName.parse(file.getName());
+            if (changeSet != null && changeSet.deviceId.equals(deviceId) && changeSet.lastId <= ackedId) {
+                changeSets.add(changeSet);
+            }
+        }
+        if (changeSets.size() < 2) {
+            return null;
+        }
+
+        long firstId = Long.MAX_VALUE;
+        long lastId = Long.MIN_VALUE;
+        List<ChangeSetReader> readers = new ArrayList<>();
+        PriorityQueue<ChangeSetReader> queue = newReaderQueue();
+        SecretKey key = getKey(prefs);
+        try {
+            for (ChangeSetName changeSet : changeSets) {
+                ChangeSetReader reader;
+                try {
+                    reader = new ChangeSetReader(new File(syncDir, changeSet.fileName), changeSet, key, 0);
+                } catch (IOException e) {
+                    // 有文件无法读取时不整理，保留原文件
+                    Log.w(TAG, "Cannot compact " + changeSet.fileName + ": " + e.getMessage());
+                    return null;
+                }
+                readers.add(reader);
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+                firstId = Math.min(firstId, changeSet.firstId);
+                lastId = Math.max(lastId, changeSet.lastId);
+            }
+
+            String name = deviceId + "_" + firstId + "_" + lastId + FILE_SUFFIX;
+            File temp = new File(syncDir, name + TEMP_SUFFIX);
+            File target = new File(syncDir, name);
+            int count = 0;
+            BufferedWriter writer = openWriter(temp, prefs, deviceId);
+            try {
+                while (!queue.isEmpty()) {
+                    ChangeSetReader reader = queue.poll();
+                    writeEvent(writer, reader.timestamp, reader.eventType, reader.time, reader.zoneOffset, reader.id);
+                    count++;
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (IOException e) {
+                // 某个文件读到一半认证失败，丢弃写了一半的合并结果
+                writer.close();
+                temp.delete();
+                throw e;
+            } finally {
+                writer.close();
+            }
+            commitFile(temp, target);
+
+            for (ChangeSetName changeSet : changeSets) {
+                File file = new File(syncDir, changeSet.fileName);
+                if (!file.equals(target) && !file.delete()) {
+                    Log.w(TAG, "Cannot delete compacted change set " + changeSet.fileName);
+                }
+            }
+            Log.d(TAG, "Compacted " + changeSets.size() + " change sets (" + count + " events) into " + name);
+            return target;
+        } finally {
+            for (ChangeSetReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    // 创建增量文件并写入第一行的设备ID，设置了口令时加密
+    private static BufferedWriter openWriter(File file, SharedPreferences prefs, String deviceId) throws IOException {
+        SecretKey key = getKey(prefs);
+        OutputStream out = new FileOutputStream(file);
+        if (key != null) {
+            out = ChangeSetCipher.encrypt(out, key);
+        }
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        writer.write(deviceId);
+        writer.newLine();
+        return writer;
+    }
+
+    // 事件ID未知（旧版本导出的文件）时为-1，不写入
+    private static void writeEvent(BufferedWriter writer, String timestamp, int eventType, long time, int zoneOffset,
+                                   long id) throws IOException {
+        writer.write(timestamp);
+        writer.write('\t');
+        writer.write(String.valueOf(eventType));
+        writer.write('\t');
+        writer.write(String.valueOf(time));
+        writer.write('\t');
+        writer.write(String.valueOf(zoneOffset));
+        if (id >= 0) {
+            writer.write('\t');
+            writer.write(String.valueOf(id));
+        }
+        writer.newLine();
+    }
+
+    // 写完后再改名，其他设备不会读到写了一半的文件
+    private static void commitFile(File temp, File target) throws IOException {
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Cannot rename " + temp);
+        }
+    }
+
+    // 按UTC时间排序的读取队列
+    private static PriorityQueue<ChangeSetReader> newReaderQueue() {
+        return new PriorityQueue<>(11, new Comparator<ChangeSetReader>() {
+            @Override
+            public int compare(ChangeSetReader reader1, ChangeSetReader reader2) {
+                return reader1.time < reader2.time ? -1 : (reader1.time == reader2.time ? 0 : 1);
+            }
+        });
+    }
+
+    // 合并其他设备尚未合并的增量文件，返回新写入的事件数量
+    public static int mergeChanges(Context context, File syncDir) throws IOException {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String localDeviceId = getDeviceId(context);
+
+        File[] files = syncDir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        SecretKey key = getKey(prefs);
+
+        // 只打开每台设备结束ID大于已合并高水位的文件，按设备和起始ID排序
+        List<ChangeSetName> changeSets = new ArrayList<>();
+        for (File file : files) {
+            ChangeSetName changeSet = ChangeSetName.parse(file.getName());
+            if (changeSet == null || changeSet.deviceId.equals(localDeviceId)
+                    || changeSet.lastId <= prefs.getLong(KEY_MERGED_PREFIX + changeSet.deviceId, 0)) {
+                continue;
+            }
+            changeSets.add(changeSet);
+        }
+        Collections.sort(changeSets, new Comparator<ChangeSetName>() {
+            @Override
+            public int compare(ChangeSetName name1, ChangeSetName name2) {
+                int result = name1.deviceId.compareTo(name2.deviceId);
+                if (result != 0) {
+                    return result;
+                }
+                return name1.firstId < name2.firstId ? -1 : (name1.firstId == name2.firstId ? 0 : 1);
+            }
+        });
+
+        // 无法打开或读到一半认证失败的文件（口令未设置或不一致、被篡改、被截断）记入failed，
+        // 已认证的块中的事件照常合并；其余文件照常合并（重复合并由唯一索引去重）
+        Set<ChangeSetName> failed = new HashSet<>();
+        List<ChangeSetReader> readers = new ArrayList<>();
+        PriorityQueue<ChangeSetReader> queue = newReaderQueue();
+        try {
+            for (ChangeSetName changeSet : changeSets) {
+                File file = new File(syncDir, changeSet.fileName);
+                ChangeSetReader reader;
+                try {
+                    // 文件中不高于高水位的事件已经合并过，读取时跳过，不再写入数据库
+                    reader = new ChangeSetReader(file, changeSet, key,
+                            prefs.getLong(KEY_MERGED_PREFIX + changeSet.deviceId, 0));
+                } catch (IOException e) {
+                    Log.w(TAG, "Skipped change set " + file.getName() + ": " + e.getMessage());
+                    failed.add(changeSet);
+                    continue;
+                }
+                readers.add(reader);
+                if (advance(reader, failed)) {
+                    queue.add(reader);
+                }
+            }
+            if (readers.isEmpty()) {
+                return 0;
+            }
+
+            int merged = mergeQueue(DatabaseHelper.getInstance(context).getWritableDatabase(), queue, failed);
+
+            // 每台设备的高水位只推进到第一个失败的文件之前，下次仍会从该文件重新开始，不会永久跳过它
+            Map<String, Long> watermarks = new HashMap<>();
+            Set<String> blockedDevices = new HashSet<>();
+            for (ChangeSetName changeSet : changeSets) {
+                if (failed.contains(changeSet)) {
+                    blockedDevices.add(changeSet.deviceId);
+                } else if (!blockedDevices.contains(changeSet.deviceId)) {
+                    watermarks.put(changeSet.deviceId, changeSet.lastId);
+                }
+            }
+
+            // 全部写入成功后再推进各设备的高水位
+            SharedPreferences.Editor editor = prefs.edit();
+            for (Map.Entry<String, Long> watermark : watermarks.entrySet()) {
+                String prefKey = KEY_MERGED_PREFIX + watermark.getKey();
+                if (watermark.getValue() > prefs.getLong(prefKey, 0)) {
+                    editor.putLong(prefKey, watermark.getValue());
+                }
+            }
+            editor.apply();
+
+            if (merged > 0) {
+                ScreenLoggerProvider.notifyChange(context, ScreenLoggerProvider.EVENTS_URI);
+            }
+
+            Log.d(TAG, "Merged " + merged + " events from " + readers.size() + " change sets in " +
+                    (SystemClock.elapsedRealtime() - start) + " ms");
+            return merged;
+        } finally {
+            for (ChangeSetReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    // 读取下一条事件，读取失败时把文件记入failed并返回false
+    private static boolean advance(ChangeSetReader reader, Set<ChangeSetName> failed) {
+        try {
+            return reader.advance();
+        } catch (IOException e) {
+            Log.w(TAG, "Stopped reading change set " + reader.changeSet.fileName + ": " + e.getMessage());
+            failed.add(reader.changeSet);
+            return false;
+        }
+    }
+
+    // 多路归并：每次取时间最小的一条写入，写入重复事件时由唯一索引忽略
+    private static int mergeQueue(SQLiteDatabase db, PriorityQueue<ChangeSetReader> queue,
+                                  Set<ChangeSetName> failed) {
+        SQLiteStatement statement = db.compileStatement("INSERT OR IGNORE INTO " + DatabaseHelper.TABLE_NAME + " (" +
+                DatabaseHelper.COLUMN_DEVICE_ID + ", " + DatabaseHelper.COLUMN_TIMESTAMP + ", " +
+                DatabaseHelper.COLUMN_EVENT_TYPE + ", " + DatabaseHelper.COLUMN_TIME + ", " +
+                DatabaseHelper.COLUMN_ZONE_OFFSET + ") VALUES (?, ?, ?, ?, ?)");
+        int merged = 0;
+        int pending = 0;
+        try {
+            db.beginTransaction();
+            try {
+                while (!queue.isEmpty()) {
+                    ChangeSetReader reader = queue.poll();
+                    statement.bindString(1, reader.changeSet.deviceId);
+                    statement.bindString(2, reader.timestamp);
+                    statement.bindLong(3, reader.eventType);
+                    statement.bindLong(4, reader.time);
+                    statement.bindLong(5, reader.zoneOffset);
+                    if (statement.executeInsert() != -1) {
+                        merged++;
+                    }
+                    if (advance(reader, failed)) {
+                        queue.add(reader);
+                    }
+
+                    // 每批提交一次，避免单个事务过大
+                    if (++pending == BATCH_SIZE) {
+                        db.setTransactionSuccessful();
+                        db.endTransaction();
+                        db.beginTransaction();
+                        pending = 0;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            statement.close();
+        }
+        return merged;
+    }
+
+    // 增量文件名中的信息
+    private static class ChangeSetName {
+        final String fileName;
+        final String deviceId;
+        final long firstId;
+        final long lastId;
+
+        ChangeSetName(String fileName, String deviceId, long firstId, long lastId) {
+            this.fileName = fileName;
+            this.deviceId = deviceId;
+            this.firstId = firstId;
+            this.lastId = lastId;
+        }
+
+        static ChangeSetName parse(String fileName) {
+            if (!fileName.endsWith(FILE_SUFFIX)) {
+                return null;
+            }
+            String[] parts = fileName.substring(0, fileName.length() - FILE_SUFFIX.length()).split("_");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new ChangeSetName(fileName, parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    // 顺序读取一个增量文件
+    private static class ChangeSetReader {
+        final ChangeSetName changeSet;
+        private final BufferedReader reader;
+        String timestamp;
+        int eventType;
+        long time;
+        int zoneOffset;
+        // 导出设备上的事件ID，旧版本的文件中没有时为-1
+        long id;
+        // 不高于这个ID的事件已合并过，跳过
+        private final long mergedId;
+
+        ChangeSetReader(File file, ChangeSetName changeSet, SecretKey key, long mergedId) throws IOException {
+            this.changeSet = changeSet;
+            this.mergedId = mergedId;
+            FileInputStream in = new FileInputStream(file);
+            try {
+                this.reader = new BufferedReader(new InputStreamReader(ChangeSetCipher.decrypt(in, key), "UTF-8"));
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            // 第一行的设备ID应与文件名一致，防止把一台设备的文件改名冒充另一台设备
+            String deviceId;
+            try {
+                deviceId = reader.readLine();
+            } catch (IOException e) {
+                reader.close();
+                throw e;
+            }
+            if (!changeSet.deviceId.equals(deviceId)) {
+                reader.close();
+                throw new IOException("Device ID mismatch");
+            }
+        }
+
+        // 读取下一条尚未合并的事件，文件结束时返回false
+        boolean advance() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length >= 2 && !fields[0].isEmpty()) {
+                    timestamp = fields[0];
+                    eventType = parseEventType(fields[1]);
+                    id = -1;
+                    if (fields.length >= 4) {
+                        try {
+                            time = Long.parseLong(fields[2]);
+                            zoneOffset = Integer.parseInt(fields[3]);
+                            if (fields.length >= 5) {
+                                id = Long.parseLong(fields[4]);
+                                if (id <= mergedId) {
+                                    continue;
+                                }
+                            }
+                            return true;
+                        } catch (NumberFormatException e) {
+                            Log.w(TAG, "Invalid change set line: " + line);
+                        }
+                    }
+                    time = DatabaseHelper.parseTimestamp(timestamp);
+                    if (time >= 0) {
+                        zoneOffset = TimeBuckets.zoneOffset(time);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        // 旧版本导出的文件中事件类型为名称
+        private static int parseEventType(String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return DatabaseHelper.getEventTypeCode(value);
+            }
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close change set", e);
+            }
+        }
+    }
+}
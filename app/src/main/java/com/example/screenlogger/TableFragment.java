@@ -12,6 +12,7 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class TableFragment extends Fragment {
@@ -28,15 +29,19 @@ public class TableFragment extends Fragment {
         eventsRecyclerView = view.findViewById(R.id.events_recycler_view);
         noDataTextView = view.findViewById(R.id.no_data_text);
 
-        // 初始化RecyclerView
+        // 初始化RecyclerView，数据在onResume中加载
         initRecyclerView();
 
-        // 更新UI显示最近的屏幕状态记录
-        updateScreenEvents();
-
         return view;
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        // 只有当前可见的Tab会进入resumed状态，因此只加载可见页面的数据
+        updateScreenEvents();
+    }
+
     private void initRecyclerView() {
         // 设置RecyclerView的布局管理器
         LinearLayoutManager layoutManager = new LinearLayoutManager(getContext());
@@ -46,10 +51,8 @@ public class TableFragment extends Fragment {
         eventsRecyclerView.addItemDecoration(new androidx.recyclerview.widget.DividerItemDecoration(getContext(), 
                 androidx.recyclerview.widget.DividerItemDecoration.VERTICAL));
 
-        // 初始化适配器
-        DatabaseHelper dbHelper = new DatabaseHelper(getContext());
-        List<DatabaseHelper.ScreenEvent> eventsList = dbHelper.getRecentScreenEvents();
-        eventsAdapter = new ScreenEventsAdapter(getContext(), eventsList);
+        // 初始化适配器，先使用空列表，避免在创建视图时查询数据库
+        eventsAdapter = new ScreenEventsAdapter(getContext(), new ArrayList<DatabaseHelper.ScreenEvent>());
         eventsRecyclerView.setAdapter(eventsAdapter);
     }
 
@@ -58,9 +61,25 @@ public class TableFragment extends Fragment {
             return;
         }
 
-        // 从数据库获取最近12小时内的记录
-        DatabaseHelper dbHelper = new DatabaseHelper(getContext());
-        List<DatabaseHelper.ScreenEvent> eventsList = dbHelper.getRecentScreenEvents();
+        // 在后台线程从数据库获取最近12小时内的记录
+        final DatabaseHelper dbHelper = DatabaseHelper.getInstance(getContext());
+        BackgroundLoader.load("TableFragment.load", new BackgroundLoader.Task<List<DatabaseHelper.ScreenEvent>>() {
+            @Override
+            public List<DatabaseHelper.ScreenEvent> load() {
+                return dbHelper.getRecentScreenEvents();
+            }
+        }, new BackgroundLoader.Callback<List<DatabaseHelper.ScreenEvent>>() {
+            @Override
+            public void onLoaded(List<DatabaseHelper.ScreenEvent> eventsList) {
+                showScreenEvents(eventsList);
+            }
+        });
+    }
+
+    private void showScreenEvents(List<DatabaseHelper.ScreenEvent> eventsList) {
+        if (getView() == null) {
+            return;
+        }
 
         // 更新适配器数据
         eventsAdapter.setEventsList(eventsList);
@@ -73,5 +92,8 @@ public class TableFragment extends Fragment {
             eventsRecyclerView.setVisibility(RecyclerView.VISIBLE);
             noDataTextView.setVisibility(TextView.GONE);
         }
+
+        // 数据已显示，通知系统启动完成（用于统计完全显示耗时）
+        requireActivity().reportFullyDrawn();
     }
-}
\ No newline at end of file
+}
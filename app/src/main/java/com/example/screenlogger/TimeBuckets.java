@@ -0,0 +1,88 @@
+package com.example.screenlogger;
+
+import java.util.TimeZone;
+
+/**
+ * 本地时间的算术分桶。
+ * 事件记录的是UTC毫秒时间和当时的时区偏移，本地时间 = UTC时间 + 偏移，
+ * 日期、小时、星期和分钟都由整数运算得到，不需要为每条记录创建Calendar。
+ * 本地日期编号为自1970-01-01起的天数（与MinuteBitmapStore中的day一致）。
+ */
+public class TimeBuckets {
+
+    public static final long MINUTE_MILLIS = 60 * 1000;
+    public static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+    public static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    private TimeBuckets() {
+    }
+
+    // 当前默认时区在time时刻的偏移（毫秒），只在记录事件时调用
+    public static int zoneOffset(long time) {
+        return TimeZone.getDefault().getOffset(time);
+    }
+
+    public static long localMillis(long time, int zoneOffset) {
+        return time + zoneOffset;
+    }
+
+    // 本地日期编号
+    public static int localDay(long time, int zoneOffset) {
+        return (int) floorDiv(time + zoneOffset, DAY_MILLIS);
+    }
+
+    // 本地时间在当天内的毫秒数
+    public static long millisOfDay(long time, int zoneOffset) {
+        return floorMod(time + zoneOffset, DAY_MILLIS);
+    }
+
+    // 本地小时（0-23）
+    public static int hourOfDay(long time, int zoneOffset) {
+        return (int) (millisOfDay(time, zoneOffset) / HOUR_MILLIS);
+    }
+
+    // 星期一为0，星期日为6（1970-01-01是星期四）
+    public static int weekday(int localDay) {
+        return (int) floorMod(localDay + 3, 7);
+    }
+
+    // 本地日期编号格式化为 yyyy-MM-dd
+    public static String formatDay(int localDay) {
+        // 公历日期换算，见 Howard Hinnant 的 civil_from_days
+        long z = localDay + 719468L;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+        int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        char[] chars = new char[10];
+        chars[0] = (char) ('0' + year / 1000 % 10);
+        chars[1] = (char) ('0' + year / 100 % 10);
+        chars[2] = (char) ('0' + year / 10 % 10);
+        chars[3] = (char) ('0' + year % 10);
+        chars[4] = '-';
+        chars[5] = (char) ('0' + month / 10);
+        chars[6] = (char) ('0' + month % 10);
+        chars[7] = '-';
+        chars[8] = (char) ('0' + day / 10);
+        chars[9] = (char) ('0' + day % 10);
+        return new String(chars);
+    }
+
+    // Math.floorDiv / floorMod 需要API 24
+    static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+
+    static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
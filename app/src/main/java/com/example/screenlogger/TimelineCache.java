@@ -0,0 +1,189 @@
+package com.example.screenlogger;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 时间线数据的预取缓存。
+ * 亮屏和解锁后用户常常马上打开应用，因此在这两个事件之后于后台构建时间线的使用时段，
+ * 打开时间线页面时如果缓存仍然有效，就直接在主线程显示，不再等待数据库查询。
+ * 缓存用SoftReference保存，内存紧张时可被回收；任何事件写入都会使缓存失效。
+ * 命中、未命中和预取次数写入日志并显示在统计页面，用于判断预取是否值得；
+ * 预取可以在统计页面关闭（保存在ScreenLoggerPrefs中）。
+ */
+public class TimelineCache {
+
+    private static final String TAG = "TimelineCache";
+
+    private static final String PREFS_NAME = "ScreenLoggerPrefs";
+    private static final String KEY_PREFETCH = "prefetch_timeline";
+
+    private static final Object LOCK = new Object();
+
+    // 以下字段都由LOCK保护
+    private static SoftReference<Entry> cached;
+    // 每次写入事件加1，构建开始后发生过写入的结果不放入缓存
+    private static int generation;
+    private static int hits;
+    private static int misses;
+    private static int prefetches;
+    // 预取后被失效或回收、从未被使用的次数
+    private static int wasted;
+    private static boolean cachedUsed;
+
+    private TimelineCache() {
+    }
+
+    // 事件写入后调用
+    static void invalidate() {
+        synchronized (LOCK) {
+            generation++;
+            dropCached();
+        }
+    }
+
+    // 是否在亮屏和解锁后预取，默认开启
+    public static boolean isPrefetchEnabled(Context context) {
+        return getPrefs(context).getBoolean(KEY_PREFETCH, true);
+    }
+
+    public static void setPrefetchEnabled(Context context, boolean enabled) {
+        getPrefs(context).edit().putBoolean(KEY_PREFETCH, enabled).apply();
+        if (!enabled) {
+            invalidate();
+        }
+    }
+
+    // 进程启动以来的命中、未命中、预取和浪费次数
+    public static Stats getStats() {
+        synchronized (LOCK) {
+            return new Stats(hits, misses, prefetches, wasted);
+        }
+    }
+
+    // 在后台线程预先构建时间线数据
+    public static void prefetch(Context context) {
+        final DatabaseHelper dbHelper = DatabaseHelper.getInstance(context);
+        BackgroundLoader.execute("TimelineCache.prefetch", new Runnable() {
+            @Override
+            public void run() {
+                int startGeneration;
+                synchronized (LOCK) {
+                    if (getValid() != null) {
+                        return;
+                    }
+                    startGeneration = generation;
+                }
+                List<TimelineView.UsagePeriod> periods = TimelineFragment.buildTimelinePeriods(dbHelper);
+                synchronized (LOCK) {
+                    if (put(startGeneration, periods)) {
+                        prefetches++;
+                    }
+                }
+            }
+        });
+    }
+
+    // 返回仍然有效的缓存数据，没有时返回null，可在主线程调用
+    public static List<TimelineView.UsagePeriod> peek() {
+        synchronized (LOCK) {
+            Entry entry = getValid();
+            if (entry == null) {
+                return null;
+            }
+            hits++;
+            cachedUsed = true;
+            logStats();
+            return entry.periods;
+        }
+    }
+
+    // 缓存未命中时在后台线程从数据库构建，结果同时放入缓存
+    public static List<TimelineView.UsagePeriod> load(DatabaseHelper dbHelper) {
+        int startGeneration;
+        synchronized (LOCK) {
+            Entry entry = getValid();
+            if (entry != null) {
+                hits++;
+                cachedUsed = true;
+                logStats();
+                return entry.periods;
+            }
+            misses++;
+            logStats();
+            startGeneration = generation;
+        }
+        List<TimelineView.UsagePeriod> periods = TimelineFragment.buildTimelinePeriods(dbHelper);
+        synchronized (LOCK) {
+            if (put(startGeneration, periods)) {
+                cachedUsed = true;
+            }
+        }
+        return periods;
+    }
+
+    private static Entry getValid() {
+        Entry entry = cached != null ? cached.get() : null;
+        if (entry == null && cached != null) {
+            // 已被垃圾回收
+            dropCached();
+        }
+        return entry != null && entry.generation == generation ? entry : null;
+    }
+
+    private static boolean put(int startGeneration, List<TimelineView.UsagePeriod> periods) {
+        if (startGeneration != generation) {
+            return false;
+        }
+        dropCached();
+        cached = new SoftReference<>(new Entry(startGeneration, Collections.unmodifiableList(periods)));
+        cachedUsed = false;
+        return true;
+    }
+
+    private static void dropCached() {
+        if (cached != null && !cachedUsed) {
+            wasted++;
+        }
+        cached = null;
+        cachedUsed = false;
+    }
+
+    private static void logStats() {
+        Log.d(TAG, "hits=" + hits + " misses=" + misses + " prefetches=" + prefetches + " wasted=" + wasted);
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    // 预取统计快照
+    public static class Stats {
+        public final int hits;
+        public final int misses;
+        public final int prefetches;
+        public final int wasted;
+
+        Stats(int hits, int misses, int prefetches, int wasted) {
+            this.hits = hits;
+            this.misses = misses;
+            this.prefetches = prefetches;
+            this.wasted = wasted;
+        }
+    }
+
+    private static class Entry {
+        final int generation;
+        final List<TimelineView.UsagePeriod> periods;
+
+        Entry(int generation, List<TimelineView.UsagePeriod> periods) {
+            this.generation = generation;
+            this.periods = periods;
+        }
+    }
+}
@@ -10,19 +10,25 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 
 public class TimelineFragment extends Fragment {
+    // 向前翻页时每页至少覆盖的时间跨度
+    private static final long PAGE_SPAN = 3 * TimeBuckets.DAY_MILLIS;
+
     private TextView noDataTextView;
     private TimelineView timelineView;
 
+    // 当前显示的最早时间，更早的记录从这里向前分页加载；-1表示没有数据
+    private long oldestTime = -1;
+    private boolean loadingOlder;
+    private boolean reachedOldest;
+    // 每次重新显示最新数据时加1，之前发出的翻页请求结果作废
+    private int pageGeneration;
+
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
@@ -32,63 +38,187 @@ public class TimelineFragment extends Fragment {
         timelineView = view.findViewById(R.id.timeline_view);
         noDataTextView = view.findViewById(R.id.no_data_text);
 
-        // 更新时间线显示
-        updateTimeline();
+        // 滚动到最早的时段附近时加载更早的历史
+        timelineView.setOnReachOldestListener(new TimelineView.OnReachOldestListener() {
+            @Override
+            public void onReachOldest() {
+                loadOlderPeriods();
+            }
+        });
 
         return view;
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        // 只有当前可见的Tab会进入resumed状态，因此只加载可见页面的数据
+        updateTimeline();
+    }
+
     public void updateTimeline() {
         if (getContext() == null) {
             return;
         }
 
-        // 从数据库获取最近足够的事件以构建10次使用记录
-        DatabaseHelper dbHelper = new DatabaseHelper(getContext());
-        List<DatabaseHelper.ScreenEvent> eventsList = dbHelper.getLastTenUsagePeriodsEvents();
+        // 亮屏或解锁后已预取过、且之后没有新事件时直接显示，不再等待数据库
+        List<TimelineView.UsagePeriod> cachedPeriods = TimelineCache.peek();
+        if (cachedPeriods != null) {
+            showTimeline(cachedPeriods);
+            return;
+        }
 
-        // 根据是否有数据显示或隐藏相应的视图
+        // 在后台线程从数据库获取最近足够的事件以构建10次使用记录，并生成使用时段
+        final DatabaseHelper dbHelper = DatabaseHelper.getInstance(getContext());
+        BackgroundLoader.load("TimelineFragment.load", new BackgroundLoader.Task<List<TimelineView.UsagePeriod>>() {
+            @Override
+            public List<TimelineView.UsagePeriod> load() {
+                return TimelineCache.load(dbHelper);
+            }
+        }, new BackgroundLoader.Callback<List<TimelineView.UsagePeriod>>() {
+            @Override
+            public void onLoaded(List<TimelineView.UsagePeriod> timelinePeriods) {
+                showTimeline(timelinePeriods);
+            }
+        });
+    }
+
+    // 从数据库读取最近的事件并生成TimelineView的使用时段，需在后台线程调用
+    static List<TimelineView.UsagePeriod> buildTimelinePeriods(DatabaseHelper dbHelper) {
+        List<DatabaseHelper.ScreenEvent> eventsList = dbHelper.getLastTenUsagePeriodsEvents();
+        List<TimelineView.UsagePeriod> timelinePeriods = new ArrayList<>();
         if (eventsList.isEmpty()) {
-            timelineView.setVisibility(View.GONE);
-            noDataTextView.setVisibility(TextView.VISIBLE);
-        } else {
-            timelineView.setVisibility(View.VISIBLE);
-            noDataTextView.setVisibility(TextView.GONE);
-            
-            // 处理事件列表，生成使用时段数据
+            return timelinePeriods;
+        }
+
+        // 处理事件列表，生成使用时段数据
         List<UsagePeriod> usagePeriods = processEventsForTimeline(eventsList);
-        
+
         // 转换为TimelineView需要的UsagePeriod列表
-        List<TimelineView.UsagePeriod> timelinePeriods = new ArrayList<>();
         for (UsagePeriod period : usagePeriods) {
-            timelinePeriods.add(new TimelineView.UsagePeriod(period.startTime, period.endTime, period.isUsed));
+            timelinePeriods.add(new TimelineView.UsagePeriod(period.startTime, period.endTime, period.isUsed,
+                    period.unlocked));
         }
-        
-        // 更新时间线视图
-        timelineView.setUsagePeriods(timelinePeriods);
-            timelineView.invalidate();
+
+        markAnomalies(dbHelper, timelinePeriods, Long.MAX_VALUE);
+        return timelinePeriods;
+    }
+
+    // 从使用时段表读取beforeTime之前的一页历史，需在后台线程调用。
+    // 从前一个使用时段的开始时间再向前取PAGE_SPAN，中间长时间没有记录时也不会返回空页；
+    // 返回空列表表示已经没有更早的记录
+    static List<TimelineView.UsagePeriod> buildOlderPeriods(DatabaseHelper dbHelper, long beforeTime) {
+        List<TimelineView.UsagePeriod> periods = new ArrayList<>();
+        long latestStart = dbHelper.getLastSessionStartBefore(beforeTime);
+        if (latestStart < 0) {
+            return periods;
+        }
+
+        long currentTime = -1;
+        CursorIterator<DatabaseHelper.Session> sessions = dbHelper.querySessions(latestStart - PAGE_SPAN, beforeTime);
+        while (sessions.hasNext()) {
+            DatabaseHelper.Session session = sessions.next();
+            if (currentTime >= 0 && session.getStartTime() > currentTime) {
+                periods.add(new TimelineView.UsagePeriod(currentTime, session.getStartTime(), false));
+            }
+            // 不与已显示的时段重叠
+            long endTime = Math.min(session.getEndTime(), beforeTime);
+            periods.add(new TimelineView.UsagePeriod(session.getStartTime(), endTime, true, session.isUnlocked()));
+            currentTime = Math.max(currentTime, endTime);
         }
+
+        // 与已显示的最早时段之间的未使用时段
+        if (currentTime >= 0 && currentTime < beforeTime) {
+            periods.add(new TimelineView.UsagePeriod(currentTime, beforeTime, false));
+        }
+        markAnomalies(dbHelper, periods, beforeTime);
+        return periods;
     }
 
-    // 处理事件列表，生成使用时段数据
-    private List<UsagePeriod> processEventsForTimeline(List<DatabaseHelper.ScreenEvent> eventsList) {
-        List<UsagePeriod> usagePeriods = new ArrayList<>();
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+    // 标记发生过异常（时长异常或解锁过于频繁）的使用时段，两个列表都按时间升序
+    private static void markAnomalies(DatabaseHelper dbHelper, List<TimelineView.UsagePeriod> timelinePeriods,
+                                      long toTime) {
+        if (timelinePeriods.isEmpty()) {
+            return;
+        }
+        long[] anomalyTimes = dbHelper.getAnomalyTimes(timelinePeriods.get(0).startTime, toTime);
+        int index = 0;
+        for (TimelineView.UsagePeriod period : timelinePeriods) {
+            while (index < anomalyTimes.length && anomalyTimes[index] < period.startTime) {
+                index++;
+            }
+            if (period.isUsed && index < anomalyTimes.length && anomalyTimes[index] <= period.endTime) {
+                period.anomalous = true;
+            }
+        }
+    }
 
-        // 按时间戳升序排序
-        Collections.sort(eventsList, new Comparator<DatabaseHelper.ScreenEvent>() {
+    // 在后台线程加载当前最早时间之前的一页，加载中或已到最早记录时忽略
+    private void loadOlderPeriods() {
+        if (getContext() == null || loadingOlder || reachedOldest || oldestTime < 0) {
+            return;
+        }
+        loadingOlder = true;
+        final long beforeTime = oldestTime;
+        final int generation = pageGeneration;
+        final DatabaseHelper dbHelper = DatabaseHelper.getInstance(getContext());
+        BackgroundLoader.load("TimelineFragment.loadOlder", new BackgroundLoader.Task<List<TimelineView.UsagePeriod>>() {
+            @Override
+            public List<TimelineView.UsagePeriod> load() {
+                return buildOlderPeriods(dbHelper, beforeTime);
+            }
+        }, new BackgroundLoader.Callback<List<TimelineView.UsagePeriod>>() {
             @Override
-            public int compare(DatabaseHelper.ScreenEvent event1, DatabaseHelper.ScreenEvent event2) {
-                try {
-                    Date date1 = sdf.parse(event1.getTimestamp());
-                    Date date2 = sdf.parse(event2.getTimestamp());
-                    return date1.compareTo(date2);
-                } catch (ParseException e) {
-                    e.printStackTrace();
-                    return 0;
+            public void onLoaded(List<TimelineView.UsagePeriod> olderPeriods) {
+                if (generation != pageGeneration) {
+                    return;
+                }
+                loadingOlder = false;
+                if (getView() == null) {
+                    return;
+                }
+                if (olderPeriods.isEmpty()) {
+                    reachedOldest = true;
+                    return;
                 }
+                oldestTime = olderPeriods.get(0).startTime;
+                timelineView.addOlderPeriods(olderPeriods);
             }
         });
+    }
+
+    private void showTimeline(List<TimelineView.UsagePeriod> timelinePeriods) {
+        if (getView() == null) {
+            return;
+        }
+
+        // 重新显示最新数据，已加载的历史页和进行中的翻页作废
+        pageGeneration++;
+        loadingOlder = false;
+        reachedOldest = false;
+        oldestTime = timelinePeriods.isEmpty() ? -1 : timelinePeriods.get(0).startTime;
+
+        // 根据是否有数据显示或隐藏相应的视图
+        if (timelinePeriods.isEmpty()) {
+            timelineView.setVisibility(View.GONE);
+            noDataTextView.setVisibility(TextView.VISIBLE);
+        } else {
+            timelineView.setVisibility(View.VISIBLE);
+            noDataTextView.setVisibility(TextView.GONE);
+
+            // 更新时间线视图（视图自己负责重绘和过渡动画）
+            timelineView.setUsagePeriods(timelinePeriods);
+        }
+
+        // 数据已显示，通知系统启动完成（用于统计完全显示耗时）
+        requireActivity().reportFullyDrawn();
+    }
+
+    // 处理事件列表，生成使用时段数据（不依赖界面状态，可单独调用）
+    static List<UsagePeriod> processEventsForTimeline(List<DatabaseHelper.ScreenEvent> eventsList) {
+        List<UsagePeriod> usagePeriods = new ArrayList<>();
+
+        // 事件已按记录顺序排列，不再按时间重新排序，调整过系统时间时顺序也不会错乱
 
         // 找出第一个事件和最后一个事件的时间
         long startTime = Long.MAX_VALUE;
@@ -96,39 +226,17 @@ public class TimelineFragment extends Fragment {
         
         // 计算所有事件中的最早和最晚时间
         for (DatabaseHelper.ScreenEvent event : eventsList) {
-            try {
-                Date eventDate = sdf.parse(event.getTimestamp());
-                long eventTime = eventDate.getTime();
-                startTime = Math.min(startTime, eventTime);
-                endTime = Math.max(endTime, eventTime);
-            } catch (ParseException e) {
-                e.printStackTrace();
-            }
+            startTime = Math.min(startTime, event.getTime());
+            endTime = Math.max(endTime, event.getTime());
         }
 
         // 处理事件，构建使用时段
-        Date startDate = null;
-        for (DatabaseHelper.ScreenEvent event : eventsList) {
-            try {
-                Date eventDate = sdf.parse(event.getTimestamp());
-                long eventTime = eventDate.getTime();
-
-                if (event.getEventType().equals(DatabaseHelper.EVENT_SCREEN_ON)) {
-                    // 记录亮屏开始时间
-                    startDate = eventDate;
-                } else if (event.getEventType().equals(DatabaseHelper.EVENT_SCREEN_OFF) && startDate != null) {
-                    // 找到匹配的熄屏事件，创建使用时段
-                    usagePeriods.add(new UsagePeriod(startDate.getTime(), eventTime, true));
-                    startDate = null;
-                }
-            } catch (ParseException e) {
-                e.printStackTrace();
-            }
-        }
+        DatabaseHelper.ScreenEvent pendingOn = pairUsagePeriods(eventsList, usagePeriods);
 
         // 如果最后一个事件是亮屏，那么从该时间到现在都是使用时段
-        if (startDate != null) {
-            usagePeriods.add(new UsagePeriod(startDate.getTime(), endTime, true));
+        if (pendingOn != null) {
+            usagePeriods.add(new UsagePeriod(pendingOn.getTime(), Math.max(pendingOn.getTime(), endTime), true,
+                    unlockedSince(eventsList, pendingOn)));
         }
 
         // 添加未使用时段
@@ -175,16 +283,78 @@ public class TimelineFragment extends Fragment {
         return allPeriods;
     }
 
+    // 将按记录顺序排列的事件配对为使用时段，追加到out中
+    // 返回末尾尚未配对的亮屏事件，没有则返回null
+    static DatabaseHelper.ScreenEvent pairUsagePeriods(List<DatabaseHelper.ScreenEvent> orderedEvents,
+                                                       List<UsagePeriod> out) {
+        DatabaseHelper.ScreenEvent onEvent = null;
+        boolean unlocked = false;
+        for (DatabaseHelper.ScreenEvent event : orderedEvents) {
+            int eventType = event.getEventType();
+            if (eventType == DatabaseHelper.EVENT_USER_PRESENT) {
+                // 亮屏期间解锁过
+                unlocked = true;
+            } else if (eventType == DatabaseHelper.EVENT_SCREEN_ON) {
+                // 记录亮屏开始
+                onEvent = event;
+                unlocked = false;
+            } else if (eventType == DatabaseHelper.EVENT_BOOT) {
+                // 重启前未结束的亮屏无法确定结束时间，丢弃
+                onEvent = null;
+            } else if ((eventType == DatabaseHelper.EVENT_SCREEN_OFF || eventType == DatabaseHelper.EVENT_SHUTDOWN)
+                    && onEvent != null) {
+                // 找到匹配的熄屏（或关机）事件，用单调时钟计算时长，创建使用时段
+                out.add(createSession(onEvent, event, unlocked));
+                onEvent = null;
+            }
+        }
+        return onEvent;
+    }
+
+    // 未配对的亮屏事件之后是否有解锁事件（它之后不会再有亮屏、熄屏或重启事件）
+    static boolean unlockedSince(List<DatabaseHelper.ScreenEvent> orderedEvents, DatabaseHelper.ScreenEvent onEvent) {
+        for (int i = orderedEvents.size() - 1; i >= 0; i--) {
+            DatabaseHelper.ScreenEvent event = orderedEvents.get(i);
+            if (event == onEvent) {
+                break;
+            }
+            if (event.getEventType() == DatabaseHelper.EVENT_USER_PRESENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 由亮屏事件和结束事件生成使用时段
+    static UsagePeriod createSession(DatabaseHelper.ScreenEvent onEvent, DatabaseHelper.ScreenEvent offEvent,
+                                     boolean unlocked) {
+        long startTime = onEvent.getTime();
+        long endTime = DatabaseHelper.sessionEndTime(startTime, onEvent.getElapsedRealtime(),
+                offEvent.getTime(), offEvent.getElapsedRealtime());
+        UsagePeriod period = new UsagePeriod(startTime, endTime, true, unlocked);
+        period.zoneOffset = onEvent.getZoneOffset();
+        return period;
+    }
+
     // 表示一个使用时段
     public static class UsagePeriod {
         long startTime;
         long endTime;
         boolean isUsed;
+        // 使用时段内是否解锁过
+        boolean unlocked;
+        // 亮屏时的时区偏移
+        int zoneOffset;
 
         public UsagePeriod(long startTime, long endTime, boolean isUsed) {
+            this(startTime, endTime, isUsed, isUsed);
+        }
+
+        public UsagePeriod(long startTime, long endTime, boolean isUsed, boolean unlocked) {
             this.startTime = startTime;
             this.endTime = endTime;
             this.isUsed = isUsed;
+            this.unlocked = unlocked;
         }
     }
 }
\ No newline at end of file
@@ -1,14 +1,26 @@
 package com.example.screenlogger;
 
+import android.animation.ValueAnimator;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Picture;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
+import android.os.Build;
+import android.os.Trace;
 import android.util.AttributeSet;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
 import android.view.View;
+import android.view.animation.DecelerateInterpolator;
+import android.widget.OverScroller;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -17,13 +29,64 @@ import java.util.List;
 import java.util.Locale;
 
 /**
- * 自定义时间线视图，用于显示手机使用时段和未使用时段
+ * 自定义时间线视图，用于显示手机使用时段和未使用时段。
+ * 时间跨度较长时内容高于视图，可以拖动和快速滑动浏览历史。
+ * 内容按固定高度切分成若干分段，每个分段第一次可见时录制为显示列表
+ * （Android 10及以上为RenderNode，其余为Picture），之后的帧只重放录制好的绘制命令；
+ * 滚动和新数据到来时的过渡动画都只是平移画布，不需要重新录制。录制好的分段只保留最近使用的几屏。
+ * 滚动到接近最早的时段时通过OnReachOldestListener通知，由调用者分页加载更早的记录；
+ * 设置了监听器时每小时的高度固定，追加更早的时段不会缩放已有内容。
  */
 public class TimelineView extends View {
+
+    // 每个缓存分段的高度（像素）
+    private static final int BAND_HEIGHT = 1024;
+    // 内容高于视图时每小时至少占用的高度（dp）
+    private static final float MIN_HOUR_HEIGHT_DP = 96;
+    // 视图高度内的时间标记数量
+    private static final int TIME_MARK_COUNT = 5;
+    // 保留录制结果的分段数量，按屏计
+    private static final int CACHED_SCREENS = 3;
+    private static final long REVEAL_DURATION = 300;
+
     private List<UsagePeriod> usagePeriods = new ArrayList<>();
     private Paint usedPaint;
+    private Paint glancePaint;
     private Paint unusedPaint;
-    private Paint borderPaint;
+    private Paint usedBorderPaint;
+    private Paint unusedBorderPaint;
+    private Paint linePaint;
+    private Paint textPaint;
+    private Paint anomalyPaint;
+    private final Paint.FontMetrics fontMetrics = new Paint.FontMetrics();
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    // 跨过零点后的第一个时间标记带上日期
+    private final SimpleDateFormat dateTimeFormat = new SimpleDateFormat("M月d日 HH:mm", Locale.getDefault());
+    private final Date markDate = new Date();
+
+    // 当前数据的时间范围、每毫秒的高度和内容高度
+    private long minTime;
+    private long maxTime;
+    private float pixelsPerMilli;
+    private int contentHeight;
+
+    // 已录制的分段，键为分段序号；数据或尺寸变化时清空，超出容量时丢弃最久未用的分段
+    private final LruCache<Integer, Band> bands = new LruCache<Integer, Band>(CACHED_SCREENS) {
+        @Override
+        protected void entryRemoved(boolean evicted, Integer key, Band oldValue, Band newValue) {
+            oldValue.release();
+        }
+    };
+
+    private OverScroller scroller;
+    private GestureDetector gestureDetector;
+    // 新数据到来时，内容从旧位置平移到新位置
+    private ValueAnimator revealAnimator;
+    private float revealOffset;
+
+    private OnReachOldestListener onReachOldestListener;
+    // 本批数据已经通知过，避免滚动时重复请求同一页
+    private boolean reachOldestNotified;
 
     public TimelineView(@NonNull Context context) {
         super(context);
@@ -46,65 +109,332 @@ public class TimelineView extends View {
         usedPaint.setColor(getResources().getColor(android.R.color.holo_green_light));
         usedPaint.setStyle(Paint.Style.FILL);
 
+        // 亮屏但没有解锁（只看了一眼锁屏）的时段用浅色
+        glancePaint = new Paint();
+        glancePaint.setColor(Color.argb(110, 153, 204, 0));
+        glancePaint.setStyle(Paint.Style.FILL);
+
         unusedPaint = new Paint();
         unusedPaint.setColor(getResources().getColor(android.R.color.darker_gray));
         unusedPaint.setStyle(Paint.Style.FILL);
 
-        // 不再使用单一的borderPaint，而是为不同颜色区域使用不同的边界颜色
+        // 为绿色部分和灰色部分使用不同的边界颜色以实现阴影效果
+        usedBorderPaint = new Paint();
+        usedBorderPaint.setStyle(Paint.Style.STROKE);
+        usedBorderPaint.setStrokeWidth(4); // 加粗边框
+        usedBorderPaint.setColor(Color.argb(150, 0, 150, 0)); // 半透明深绿色
+
+        unusedBorderPaint = new Paint();
+        unusedBorderPaint.setStyle(Paint.Style.STROKE);
+        unusedBorderPaint.setStrokeWidth(4);
+        unusedBorderPaint.setColor(Color.argb(150, 100, 100, 100)); // 半透明深灰色
+
+        linePaint = new Paint();
+        linePaint.setColor(Color.GRAY);
+        linePaint.setStrokeWidth(1);
+
+        textPaint = new Paint();
+        textPaint.setColor(Color.BLACK);
+        textPaint.setTextSize(50); // 将时间字体放大到现在的5倍
+        textPaint.setTextAlign(Paint.Align.LEFT);
+        textPaint.getFontMetrics(fontMetrics);
+
+        // 异常使用时段左侧的红色标记
+        anomalyPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        anomalyPaint.setColor(getResources().getColor(android.R.color.holo_red_light));
+        anomalyPaint.setStyle(Paint.Style.FILL);
+
+        scroller = new OverScroller(getContext());
+        gestureDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                scroller.forceFinished(true);
+                return getMaxScroll() > 0;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                scrollTo(0, clampScroll(getScrollY() + (int) distanceY));
+                return true;
+            }
+
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+                scroller.fling(0, getScrollY(), 0, (int) -velocityY, 0, 0, 0, getMaxScroll());
+                postInvalidateOnAnimation();
+                return true;
+            }
+        });
     }
 
     public void setUsagePeriods(List<UsagePeriod> usagePeriods) {
+        long previousMaxTime = maxTime;
+        int previousContentHeight = contentHeight;
+        boolean hadPeriods = !this.usagePeriods.isEmpty();
+
         this.usagePeriods = usagePeriods;
+        updateContent();
+        clearBands();
+
+        // 停在最新位置时，新时段从顶部滑入，而不是直接跳变
+        if (hadPeriods && getScrollY() == 0 && maxTime > previousMaxTime && previousContentHeight > 0) {
+            startReveal(-timeToY(previousMaxTime));
+        }
+        reachOldestNotified = false;
+        checkReachOldest();
+        invalidate();
     }
 
-    @Override
-    protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
+    // 在已有数据之前追加更早的时段（按时间升序，全部早于已有的时段）。
+    // 最新的时间在顶部且每小时高度固定，更早的时段接在内容底部，已有内容的纵坐标和录制好的分段保持不变；
+    // 最新时间变化时（不应发生）已有内容整体下移，滚动位置随之下移，可见内容不跳动
+    public void addOlderPeriods(List<UsagePeriod> olderPeriods) {
+        if (olderPeriods.isEmpty()) {
+            return;
+        }
+        boolean hadPeriods = !usagePeriods.isEmpty();
+        long previousMaxTime = maxTime;
+        float previousScale = pixelsPerMilli;
+        // 原有最早时段的底部，新的时段从这里往下画
+        float previousBottom = hadPeriods ? timeToY(minTime) : 0;
+
+        List<UsagePeriod> combined = new ArrayList<>(olderPeriods.size() + usagePeriods.size());
+        combined.addAll(olderPeriods);
+        combined.addAll(usagePeriods);
+        this.usagePeriods = combined;
+        updateContent();
 
-        if (usagePeriods == null || usagePeriods.isEmpty()) {
+        int shift = hadPeriods ? Math.round((maxTime - previousMaxTime) * pixelsPerMilli) : 0;
+        if (!hadPeriods || pixelsPerMilli != previousScale || shift != 0) {
+            scrollTo(0, clampScroll(getScrollY() + shift));
+            clearBands();
+        } else {
+            // 只有原内容底部附近的分段会画到新的时段或时间标记，上一个分段也一起重录，留出标记和文字超出的部分
+            clearBandsFrom((int) (previousBottom / BAND_HEIGHT) - 1);
+        }
+        reachOldestNotified = false;
+        checkReachOldest();
+        invalidate();
+    }
+
+    public void setOnReachOldestListener(OnReachOldestListener listener) {
+        this.onReachOldestListener = listener;
+        // 是否固定每小时的高度取决于有没有监听器
+        updateContent();
+        clearBands();
+        invalidate();
+    }
+
+    // 可见区域的底部距内容底部不足一屏时通知一次
+    private void checkReachOldest() {
+        if (onReachOldestListener == null || reachOldestNotified || usagePeriods.isEmpty() || getHeight() == 0) {
             return;
         }
+        if (getScrollY() + 2 * getHeight() >= contentHeight) {
+            reachOldestNotified = true;
+            onReachOldestListener.onReachOldest();
+        }
+    }
 
-        int width = getWidth();
-        int height = getHeight();
-        int timelineWidth = width * 3 / 4; // 设置时间轴宽度为视图宽度的3/4，留出右侧空间显示时间
-        int timeLabelWidth = width - timelineWidth - 10; // 时间标签区域宽度
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+        super.onScrollChanged(l, t, oldl, oldt);
+        checkReachOldest();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // 一屏最多跨越h / BAND_HEIGHT + 2个分段
+        bands.resize(CACHED_SCREENS * (h / BAND_HEIGHT + 2));
+        updateContent();
+        clearBands();
+        checkReachOldest();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (revealAnimator != null) {
+            revealAnimator.cancel();
+        }
+        clearBands();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return gestureDetector.onTouchEvent(event) || super.onTouchEvent(event);
+    }
+
+    @Override
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            scrollTo(0, clampScroll(scroller.getCurrY()));
+            postInvalidateOnAnimation();
+        }
+    }
 
-        // 找出最早和最晚的时间
-        long minTime = Long.MAX_VALUE;
-        long maxTime = Long.MIN_VALUE;
+    @Override
+    protected int computeVerticalScrollRange() {
+        return contentHeight;
+    }
 
+    // 重新计算时间范围、比例和内容高度；调用者决定丢弃哪些录制好的分段
+    private void updateContent() {
+        minTime = Long.MAX_VALUE;
+        maxTime = Long.MIN_VALUE;
         for (UsagePeriod period : usagePeriods) {
             minTime = Math.min(minTime, period.startTime);
             maxTime = Math.max(maxTime, period.endTime);
         }
 
+        int height = getHeight();
+        if (usagePeriods.isEmpty() || height == 0) {
+            contentHeight = 0;
+            pixelsPerMilli = 0;
+        } else {
+            float hourHeight = MIN_HOUR_HEIGHT_DP * getResources().getDisplayMetrics().density;
+            float fixedScale = hourHeight / 3600000f;
+            long span = maxTime - minTime;
+            if (onReachOldestListener != null || span * fixedScale >= height || span == 0) {
+                // 可以分页加载时不足一屏也不拉伸，下方留空，追加更早的时段后不需要重新缩放
+                pixelsPerMilli = fixedScale;
+            } else {
+                // 不分页且内容不足一屏时拉伸到视图高度
+                pixelsPerMilli = height / (float) span;
+            }
+            contentHeight = Math.max(height, (int) Math.ceil(span * (double) pixelsPerMilli));
+        }
+        scrollTo(0, clampScroll(getScrollY()));
+    }
+
+    private void startReveal(float fromOffset) {
+        if (revealAnimator != null) {
+            revealAnimator.cancel();
+        }
+        revealAnimator = ValueAnimator.ofFloat(fromOffset, 0f);
+        revealAnimator.setDuration(REVEAL_DURATION);
+        revealAnimator.setInterpolator(new DecelerateInterpolator());
+        revealAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                revealOffset = (float) animation.getAnimatedValue();
+                postInvalidateOnAnimation();
+            }
+        });
+        revealOffset = fromOffset;
+        revealAnimator.start();
+    }
+
+    private int getMaxScroll() {
+        return Math.max(0, contentHeight - getHeight());
+    }
+
+    private int clampScroll(int scrollY) {
+        return Math.max(0, Math.min(scrollY, getMaxScroll()));
+    }
+
+    // 时间在内容中的纵坐标，最新的时间在顶部
+    private float timeToY(long time) {
+        return (float) ((maxTime - time) * (double) pixelsPerMilli);
+    }
+
+    private long yToTime(float y) {
+        return maxTime - (long) (y / (double) pixelsPerMilli);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (usagePeriods == null || usagePeriods.isEmpty() || contentHeight == 0) {
+            return;
+        }
+
         if (minTime == maxTime) {
             return; // 避免除零错误
         }
 
+        // 画布已按滚动位置平移，只绘制与可见区域相交的分段
+        float visibleTop = getScrollY() - revealOffset;
+        int firstBand = Math.max(0, (int) (visibleTop / BAND_HEIGHT));
+        int lastBand = Math.min((contentHeight - 1) / BAND_HEIGHT, (int) ((visibleTop + getHeight()) / BAND_HEIGHT));
+        boolean hardwareAccelerated = canvas.isHardwareAccelerated();
+
+        canvas.save();
+        canvas.translate(0, revealOffset);
+        for (int index = firstBand; index <= lastBand; index++) {
+            int bandTop = index * BAND_HEIGHT;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && hardwareAccelerated) {
+                canvas.drawRenderNode(getBand(index).getRenderNode(this, bandTop));
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M || !hardwareAccelerated) {
+                // 6.0之前的硬件加速画布不支持drawPicture
+                canvas.save();
+                canvas.translate(0, bandTop);
+                canvas.drawPicture(getBand(index).getPicture(this, bandTop));
+                canvas.restore();
+            } else {
+                canvas.save();
+                canvas.clipRect(0, bandTop, getWidth(), bandTop + BAND_HEIGHT);
+                drawContent(canvas, bandTop, bandTop + BAND_HEIGHT);
+                canvas.restore();
+            }
+        }
+        canvas.restore();
+    }
+
+    private Band getBand(int index) {
+        Band band = bands.get(index);
+        if (band == null) {
+            band = new Band();
+            bands.put(index, band);
+        }
+        return band;
+    }
+
+    private void clearBands() {
+        bands.evictAll();
+    }
+
+    // 丢弃序号不小于firstIndex的分段
+    private void clearBandsFrom(int firstIndex) {
+        for (Integer index : bands.snapshot().keySet()) {
+            if (index >= firstIndex) {
+                bands.remove(index);
+            }
+        }
+    }
+
+    // 以内容坐标绘制[top, bottom)范围内的时段和时间标签
+    private void drawContent(Canvas canvas, int top, int bottom) {
+        int width = getWidth();
+        int timelineWidth = width * 3 / 4; // 设置时间轴宽度为视图宽度的3/4，留出右侧空间显示时间
+
+        // 时间轴宽度改为现在的一半（从35%减小到17.5%）
+        float baseRectWidth = timelineWidth * 0.175f;
+        float markerRadius = baseRectWidth * 0.12f;
+
         // 绘制使用时段（改为垂直方向）
         for (UsagePeriod period : usagePeriods) {
-            // 计算时段时长（毫秒）
-            long duration = period.endTime - period.startTime;
-            
             // 忽略时间段过短（<=0）的记录
-            if (duration <= 0) {
+            if (period.endTime - period.startTime <= 0) {
                 continue;
             }
-            
+
             // 计算该时段在视图中的位置（垂直方向）
-            float startY = height * (maxTime - period.endTime) / (float) (maxTime - minTime);
-            float endY = height * (maxTime - period.startTime) / (float) (maxTime - minTime);
-            
+            float startY = timeToY(period.endTime);
+            float endY = timeToY(period.startTime);
+            // 标记可能超出时段本身，留出标记半径
+            if (endY + markerRadius < top || startY - markerRadius > bottom) {
+                continue;
+            }
+
             // 计算实际高度
             float periodHeight = endY - startY;
-            
-            // 时间轴宽度改为现在的一半（从35%减小到17.5%）
-            float baseRectWidth = timelineWidth * 0.175f;
+
             float rectWidth = baseRectWidth;
             float cornerRadius = baseRectWidth / 2; // 圆角半径
-            
+
             // 对于不能正常显示的短时间段，缩小胶囊的大小
             float minHeightForFullDisplay = baseRectWidth; // 能完整显示胶囊形状的最小高度
             if (periodHeight < minHeightForFullDisplay) {
@@ -112,72 +442,119 @@ public class TimelineView extends View {
                 rectWidth = Math.max(baseRectWidth * 0.6f, periodHeight);
                 cornerRadius = rectWidth / 2;
             }
-            
+
             float rectLeft = (timelineWidth - rectWidth) / 2;
-            
+
             // 绘制圆角矩形（胶囊形状）表示时段
-            canvas.drawRoundRect(rectLeft, startY, rectLeft + rectWidth, endY, 
-                    cornerRadius, cornerRadius, period.isUsed ? usedPaint : unusedPaint);
-            
-            // 为绿色部分和灰色部分使用不同的边界颜色
-            Paint periodBorderPaint = new Paint();
-            periodBorderPaint.setStyle(Paint.Style.STROKE);
-            periodBorderPaint.setStrokeWidth(4); // 加粗边框
-            
-            // 根据时段类型设置不同的边界颜色以实现阴影效果
-            if (period.isUsed) {
-                // 绿色部分的边界颜色
-                periodBorderPaint.setColor(Color.argb(150, 0, 150, 0)); // 半透明深绿色
-            } else {
-                // 灰色部分的边界颜色
-                periodBorderPaint.setColor(Color.argb(150, 100, 100, 100)); // 半透明深灰色
+            canvas.drawRoundRect(rectLeft, startY, rectLeft + rectWidth, endY,
+                    cornerRadius, cornerRadius, period.isUsed ? (period.unlocked ? usedPaint : glancePaint) : unusedPaint);
+            canvas.drawRoundRect(rectLeft, startY, rectLeft + rectWidth, endY,
+                    cornerRadius, cornerRadius, period.isUsed ? usedBorderPaint : unusedBorderPaint);
+
+            if (period.anomalous) {
+                canvas.drawCircle(rectLeft - markerRadius * 2, (startY + endY) / 2, markerRadius, anomalyPaint);
             }
-            
-            canvas.drawRoundRect(rectLeft, startY, rectLeft + rectWidth, endY, 
-                    cornerRadius, cornerRadius, periodBorderPaint);
         }
 
-        // 绘制时间标签（右侧）
-        Paint textPaint = new Paint();
-        textPaint.setColor(Color.BLACK);
-        textPaint.setTextSize(50); // 将时间字体放大到现在的5倍
-        textPaint.setTextAlign(Paint.Align.LEFT);
+        // 绘制时间标签（右侧），每隔视图高度的1/5标记一次，从内容顶部（最新的时间）开始，
+        // 追加更早的时段时已有标记的位置不变
+        float markSpacing = getHeight() / (float) TIME_MARK_COUNT;
+        float textHeight = fontMetrics.descent - fontMetrics.ascent;
+        float rectLeft = (timelineWidth - baseRectWidth) / 2;
+        // 只绘制从时间轴到时间标签起始位置附近的短横线
+        float lineStartX = rectLeft + baseRectWidth + 15; // 从时间轴右侧 + 15像素开始
+        float lineEndX = lineStartX + 40; // 短横线长度为40像素
+        float textX = lineEndX + 10; // 文本紧接在短横线后面
+        int markCount = (int) (contentHeight / markSpacing + 0.5f);
+        for (int i = 0; i <= markCount; i++) {
+            float markY = i * markSpacing;
+            if (markY + textHeight < top || markY - textHeight > bottom) {
+                continue;
+            }
 
-        SimpleDateFormat sdf = new SimpleDateFormat("HH:mm", Locale.getDefault());
-        
-        // 绘制时间轴上的标记（每隔一段时间标记一次）
-        long timeRange = maxTime - minTime;
-        int timeMarkCount = 5; // 标记的数量
-        
-        for (int i = 0; i <= timeMarkCount; i++) {
-            long markTime = minTime + (timeRange * i / timeMarkCount);
-            float markY = height * (maxTime - markTime) / (float) (maxTime - minTime);
-            
             // 绘制时间标记线（离时间轴更近）
-            Paint linePaint = new Paint();
-            linePaint.setColor(Color.GRAY);
-            linePaint.setStrokeWidth(1);
-            
-            // 在时间标签绘制循环中重新计算时间轴的位置参数
-            float baseRectWidth = timelineWidth * 0.175f;
-            float rectWidth = baseRectWidth;
-            float rectLeft = (timelineWidth - rectWidth) / 2;
-            
-            // 只绘制从时间轴到时间标签起始位置附近的短横线
-            float lineStartX = rectLeft + rectWidth + 15; // 从时间轴右侧 + 15像素开始
-            float lineEndX = lineStartX + 40; // 短横线长度为40像素
             canvas.drawLine(lineStartX, markY, lineEndX, markY, linePaint);
-            
-            // 绘制时间文本
-            String timeStr = sdf.format(new Date(markTime));
-            float textX = lineEndX + 10; // 文本紧接在短横线后面
-            // 计算文本的垂直居中位置
-            Paint.FontMetrics fontMetrics = textPaint.getFontMetrics();
+
+            // 绘制时间文本，垂直居中；最上面的标记没有更新的标记，也带上日期
             float textY = markY - (fontMetrics.ascent + fontMetrics.descent) / 2;
-            canvas.drawText(timeStr, textX, textY, textPaint);
+            String label = i == 0 ? formatMark(yToTime(markY), Long.MAX_VALUE)
+                    : formatMark(yToTime(markY), yToTime(markY - markSpacing));
+            canvas.drawText(label, textX, textY, textPaint);
+        }
+    }
+
+    // 时间标记的文本：与上方（更新的）标记不在同一天时带上日期，否则只显示时分
+    String formatMark(long markTime, long newerMarkTime) {
+        markDate.setTime(markTime);
+        if (newerMarkTime == Long.MAX_VALUE || localDay(markTime) != localDay(newerMarkTime)) {
+            return dateTimeFormat.format(markDate);
+        }
+        return timeFormat.format(markDate);
+    }
+
+    private static int localDay(long time) {
+        return TimeBuckets.localDay(time, TimeBuckets.zoneOffset(time));
+    }
+
+    /**
+     * 内容的一个分段及其录制好的显示列表
+     */
+    private static class Band {
+        private Picture picture;
+        private RenderNode renderNode;
+
+        Picture getPicture(TimelineView view, int bandTop) {
+            if (picture == null) {
+                Trace.beginSection("TimelineView.recordBand");
+                try {
+                    picture = new Picture();
+                    Canvas canvas = picture.beginRecording(view.getWidth(), BAND_HEIGHT);
+                    canvas.clipRect(0, 0, view.getWidth(), BAND_HEIGHT);
+                    canvas.translate(0, -bandTop);
+                    view.drawContent(canvas, bandTop, bandTop + BAND_HEIGHT);
+                    picture.endRecording();
+                } finally {
+                    Trace.endSection();
+                }
+            }
+            return picture;
+        }
+
+        @RequiresApi(Build.VERSION_CODES.Q)
+        RenderNode getRenderNode(TimelineView view, int bandTop) {
+            if (renderNode == null) {
+                Trace.beginSection("TimelineView.recordBand");
+                try {
+                    renderNode = new RenderNode("TimelineBand");
+                    // 超出分段的部分由RenderNode的边界裁剪
+                    renderNode.setPosition(0, bandTop, view.getWidth(), bandTop + BAND_HEIGHT);
+                    RecordingCanvas canvas = renderNode.beginRecording();
+                    canvas.translate(0, -bandTop);
+                    view.drawContent(canvas, bandTop, bandTop + BAND_HEIGHT);
+                    renderNode.endRecording();
+                } finally {
+                    Trace.endSection();
+                }
+            }
+            return renderNode;
+        }
+
+        void release() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && renderNode != null) {
+                renderNode.discardDisplayList();
+            }
+            renderNode = null;
+            picture = null;
         }
     }
 
+    /**
+     * 滚动到接近最早的时段
+     */
+    public interface OnReachOldestListener {
+        void onReachOldest();
+    }
+
     /**
      * 表示一个使用时段
      */
@@ -185,11 +562,19 @@ public class TimelineView extends View {
         long startTime;
         long endTime;
         boolean isUsed;
+        boolean unlocked;
+        // 该时段内检测到异常使用
+        boolean anomalous;
 
         public UsagePeriod(long startTime, long endTime, boolean isUsed) {
+            this(startTime, endTime, isUsed, isUsed);
+        }
+
+        public UsagePeriod(long startTime, long endTime, boolean isUsed, boolean unlocked) {
             this.startTime = startTime;
             this.endTime = endTime;
             this.isUsed = isUsed;
+            this.unlocked = unlocked;
         }
     }
-}
\ No newline at end of file
+}
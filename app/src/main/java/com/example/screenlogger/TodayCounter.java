@@ -0,0 +1,128 @@
+package com.example.screenlogger;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * 今日亮屏时长和解锁次数的轻量计数器。
+ * 由ScreenStateService在记录事件时顺带更新，保存在单独的SharedPreferences文件中，
+ * 桌面小部件和快捷设置磁贴只读取这里，不查询数据库。
+ * SharedPreferences加载后常驻内存，读取只是一次哈希表查找；写入使用apply()异步落盘。
+ */
+public class TodayCounter {
+
+    // 与备份的ScreenLoggerPrefs分开，计数只对本机当天有意义
+    private static final String PREFS_NAME = "ScreenLoggerToday";
+    private static final String KEY_DAY = "day";
+    private static final String KEY_ON_TIME = "on_time";
+    private static final String KEY_UNLOCKS = "unlocks";
+    private static final String KEY_ON_SINCE = "on_since";
+
+    private TodayCounter() {
+    }
+
+    public static synchronized void onScreenOn(Context context, long time) {
+        SharedPreferences prefs = getPrefs(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        rollOver(prefs, editor, time);
+        // 重复的亮屏事件不重新计时
+        if (prefs.getLong(KEY_ON_SINCE, -1) < 0) {
+            editor.putLong(KEY_ON_SINCE, time);
+        }
+        editor.apply();
+    }
+
+    public static synchronized void onScreenOff(Context context, long time) {
+        SharedPreferences prefs = getPrefs(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        long onTime = rollOver(prefs, editor, time) ? 0 : prefs.getLong(KEY_ON_TIME, 0);
+        long onSince = prefs.getLong(KEY_ON_SINCE, -1);
+        if (onSince >= 0) {
+            // 跨过零点的使用时段只计入今天的部分
+            onTime += Math.max(0, time - Math.max(onSince, dayStart(time)));
+            editor.putLong(KEY_ON_TIME, onTime);
+        }
+        editor.putLong(KEY_ON_SINCE, -1);
+        editor.apply();
+    }
+
+    public static synchronized void onUnlock(Context context, long time) {
+        SharedPreferences prefs = getPrefs(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        int unlocks = rollOver(prefs, editor, time) ? 0 : prefs.getInt(KEY_UNLOCKS, 0);
+        editor.putInt(KEY_UNLOCKS, unlocks + 1);
+        editor.apply();
+    }
+
+    // 开机时丢弃重启前未结束的亮屏，关机期间不计入亮屏时长
+    public static synchronized void onBoot(Context context) {
+        getPrefs(context).edit().putLong(KEY_ON_SINCE, -1).apply();
+    }
+
+    // 计数器是否还不是今天的数据；只读内存中的SharedPreferences，服务每次启动时调用
+    public static synchronized boolean needsSeed(Context context, long now) {
+        return getPrefs(context).getInt(KEY_DAY, Integer.MIN_VALUE) != localDay(now);
+    }
+
+    // 计数器还不是今天的数据时（首次安装或升级后），用数据库中的今日汇总初始化
+    public static synchronized void seed(Context context, long onTime, int unlocks, long now) {
+        SharedPreferences prefs = getPrefs(context);
+        if (prefs.getInt(KEY_DAY, Integer.MIN_VALUE) == localDay(now)) {
+            return;
+        }
+        prefs.edit()
+                .putInt(KEY_DAY, localDay(now))
+                .putLong(KEY_ON_TIME, onTime)
+                .putInt(KEY_UNLOCKS, unlocks)
+                .apply();
+    }
+
+    // 读取now时刻的今日计数，正在亮屏的部分也计算在内
+    public static synchronized Snapshot read(Context context, long now) {
+        SharedPreferences prefs = getPrefs(context);
+        Snapshot snapshot = new Snapshot();
+        snapshot.screenOnSince = prefs.getLong(KEY_ON_SINCE, -1);
+        if (prefs.getInt(KEY_DAY, Integer.MIN_VALUE) == localDay(now)) {
+            snapshot.onTime = prefs.getLong(KEY_ON_TIME, 0);
+            snapshot.unlocks = prefs.getInt(KEY_UNLOCKS, 0);
+        }
+        if (snapshot.screenOnSince >= 0) {
+            snapshot.onTime += Math.max(0, now - Math.max(snapshot.screenOnSince, dayStart(now)));
+        }
+        return snapshot;
+    }
+
+    // 日期变化时清零，返回是否清零
+    private static boolean rollOver(SharedPreferences prefs, SharedPreferences.Editor editor, long time) {
+        int today = localDay(time);
+        if (prefs.getInt(KEY_DAY, Integer.MIN_VALUE) == today) {
+            return false;
+        }
+        editor.putInt(KEY_DAY, today);
+        editor.putLong(KEY_ON_TIME, 0);
+        editor.putInt(KEY_UNLOCKS, 0);
+        return true;
+    }
+
+    private static int localDay(long time) {
+        return TimeBuckets.localDay(time, TimeBuckets.zoneOffset(time));
+    }
+
+    // time所在本地日期零点的UTC时间
+    private static long dayStart(long time) {
+        int zoneOffset = TimeBuckets.zoneOffset(time);
+        return time - TimeBuckets.millisOfDay(time, zoneOffset);
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    // 今日计数快照
+    public static class Snapshot {
+        long onTime;
+        int unlocks;
+        // 当前亮屏的开始时间，熄屏时为-1
+        long screenOnSince = -1;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.screenlogger;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * 快捷设置磁贴，显示今日亮屏时长和解锁次数。
+ * 只在下拉面板可见（onStartListening）时读取TodayCounter，不访问数据库。
+ */
+@RequiresApi(Build.VERSION_CODES.N)
+public class TodayTileService extends TileService {
+
+    @Override
+    public void onStartListening() {
+        super.onStartListening();
+        Tile tile = getQsTile();
+        if (tile == null) {
+            return;
+        }
+        TodayCounter.Snapshot snapshot = TodayCounter.read(this, System.currentTimeMillis());
+        long minutes = snapshot.onTime / 60000;
+        tile.setLabel(getString(R.string.tile_on_time, minutes / 60, minutes % 60));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            tile.setSubtitle(getString(R.string.widget_unlocks, snapshot.unlocks));
+        }
+        tile.setState(Tile.STATE_INACTIVE);
+        tile.updateTile();
+    }
+
+    @Override
+    public void onClick() {
+        super.onClick();
+        Intent intent = new Intent(this, MainActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        startActivityAndCollapse(intent);
+    }
+
+    // 计数变化后请求系统在面板可见时刷新磁贴
+    public static void requestUpdate(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            TileService.requestListeningState(context, new ComponentName(context, TodayTileService.class));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.screenlogger;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+import android.widget.RemoteViews;
+
+/**
+ * 显示今日亮屏时长和解锁次数的桌面小部件。
+ * 数据只来自TodayCounter，刷新时不访问数据库。
+ * 亮屏时长用Chronometer显示，由桌面自己走秒，亮屏期间不需要每分钟推送更新；
+ * 只有亮屏、熄屏和解锁时才会重新推送一次。
+ */
+public class TodayWidgetProvider extends AppWidgetProvider {
+
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        // 系统定期调用（见today_widget_info），主要用于跨过零点后清零
+        appWidgetManager.updateAppWidget(appWidgetIds, buildViews(context));
+    }
+
+    // 推送最新计数到所有小部件
+    public static void updateAll(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(context, TodayWidgetProvider.class));
+        if (appWidgetIds.length > 0) {
+            appWidgetManager.updateAppWidget(appWidgetIds, buildViews(context));
+        }
+    }
+
+    private static RemoteViews buildViews(Context context) {
+        TodayCounter.Snapshot snapshot = TodayCounter.read(context, System.currentTimeMillis());
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_today);
+
+        // base设为“现在 - 已亮屏时长”，亮屏时由Chronometer继续计时
+        long base = SystemClock.elapsedRealtime() - snapshot.onTime;
+        views.setChronometer(R.id.widget_on_time, base, null, snapshot.screenOnSince >= 0);
+        views.setTextViewText(R.id.widget_unlocks, context.getString(R.string.widget_unlocks, snapshot.unlocks));
+
+        Intent intent = new Intent(context, MainActivity.class);
+        int flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0;
+        views.setOnClickPendingIntent(R.id.widget_root, PendingIntent.getActivity(context, 0, intent, flags));
+        return views;
+    }
+}
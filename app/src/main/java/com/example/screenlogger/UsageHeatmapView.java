@@ -0,0 +1,91 @@
+package com.example.screenlogger;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 星期 × 小时的使用热力图，颜色越深表示该时段亮屏时间越长
+ */
+public class UsageHeatmapView extends View {
+    private static final String[] WEEKDAY_LABELS = {"一", "二", "三", "四", "五", "六", "日"};
+
+    private long[] weekdayHourOnTime = new long[7 * 24];
+    private long maxOnTime;
+    private Paint cellPaint;
+    private Paint textPaint;
+
+    public UsageHeatmapView(@NonNull Context context) {
+        super(context);
+        init();
+    }
+
+    public UsageHeatmapView(@NonNull Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public UsageHeatmapView(@NonNull Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init();
+    }
+
+    private void init() {
+        cellPaint = new Paint();
+        cellPaint.setStyle(Paint.Style.FILL);
+
+        textPaint = new Paint();
+        textPaint.setColor(Color.BLACK);
+        textPaint.setTextSize(28);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+    }
+
+    // 设置热力图数据，下标为 星期 * 24 + 小时
+    public void setWeekdayHourOnTime(long[] weekdayHourOnTime) {
+        this.weekdayHourOnTime = weekdayHourOnTime;
+        maxOnTime = 0;
+        for (long onTime : weekdayHourOnTime) {
+            maxOnTime = Math.max(maxOnTime, onTime);
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        float labelWidth = textPaint.getTextSize() * 1.5f;
+        float labelHeight = textPaint.getTextSize() * 1.5f;
+        float cellWidth = (getWidth() - labelWidth) / 24f;
+        float cellHeight = (getHeight() - labelHeight) / 7f;
+
+        Paint.FontMetrics fontMetrics = textPaint.getFontMetrics();
+        float textOffset = -(fontMetrics.ascent + fontMetrics.descent) / 2;
+
+        for (int weekday = 0; weekday < 7; weekday++) {
+            float top = weekday * cellHeight;
+            canvas.drawText(WEEKDAY_LABELS[weekday], labelWidth / 2, top + cellHeight / 2 + textOffset, textPaint);
+
+            for (int hour = 0; hour < 24; hour++) {
+                long onTime = weekdayHourOnTime[weekday * 24 + hour];
+                int alpha = maxOnTime > 0 ? (int) (20 + 235 * onTime / maxOnTime) : 20;
+                cellPaint.setColor(Color.argb(alpha, 0, 150, 0));
+
+                float left = labelWidth + hour * cellWidth;
+                canvas.drawRect(left + 1, top + 1, left + cellWidth - 1, top + cellHeight - 1, cellPaint);
+            }
+        }
+
+        // 每隔6小时标注一次
+        for (int hour = 0; hour < 24; hour += 6) {
+            float x = labelWidth + hour * cellWidth + cellWidth / 2;
+            canvas.drawText(String.valueOf(hour), x, 7 * cellHeight + labelHeight / 2 + textOffset, textPaint);
+        }
+    }
+}
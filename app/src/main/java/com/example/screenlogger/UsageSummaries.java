@@ -0,0 +1,275 @@
+package com.example.screenlogger;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * 增量维护的使用统计汇总表。
+ * 每次解锁和每个使用时段结束时更新少量汇总行，统计页面只读取这些固定大小的汇总，
+ * 打开耗时与事件总数无关。
+ * 日期和小时按记录时的时区偏移换算，跨时区旅行或夏令时切换不会把数据算到错误的日期。
+ */
+public class UsageSummaries {
+
+    private static final String TAG = "UsageSummaries";
+
+    // 每日汇总：解锁次数和亮屏总时长
+    public static final String TABLE_DAILY = "daily_stats";
+    public static final String COLUMN_DAY = "day";
+    public static final String COLUMN_UNLOCKS = "unlocks";
+    public static final String COLUMN_ON_TIME = "on_time";
+
+    // 星期 × 小时的亮屏时长，共7 × 24行
+    public static final String TABLE_HOURLY = "hourly_usage";
+    public static final String COLUMN_WEEKDAY = "weekday";
+    public static final String COLUMN_HOUR = "hour";
+
+    // 使用时段时长的对数直方图，用于估算中位数
+    public static final String TABLE_HISTOGRAM = "session_histogram";
+    public static final String COLUMN_BUCKET = "bucket";
+    public static final String COLUMN_COUNT = "count";
+
+    // 全局汇总，只有一行
+    public static final String TABLE_SUMMARY = "usage_summary";
+    public static final String COLUMN_TOTAL_UNLOCKS = "total_unlocks";
+    public static final String COLUMN_DAY_COUNT = "day_count";
+    public static final String COLUMN_LONGEST_OFF = "longest_off";
+    public static final String COLUMN_LAST_SESSION_END = "last_session_end";
+
+    // 直方图每个桶的宽度为 2^(1/4) 倍
+    private static final double BUCKETS_PER_DOUBLING = 4.0;
+
+    private UsageSummaries() {
+    }
+
+    public static void createTables(SQLiteDatabase db) {
+        createTables(db, "");
+    }
+
+    // 创建汇总表；suffix不为空时创建重建用的影子表（见SessionBackfill）
+    static void createTables(SQLiteDatabase db, String suffix) {
+        db.execSQL("CREATE TABLE " + TABLE_DAILY + suffix + " (" +
+                COLUMN_DAY + " TEXT PRIMARY KEY, " +
+                COLUMN_UNLOCKS + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_ON_TIME + " INTEGER NOT NULL DEFAULT 0" +
+                ");");
+        db.execSQL("CREATE TABLE " + TABLE_HOURLY + suffix + " (" +
+                COLUMN_WEEKDAY + " INTEGER NOT NULL, " +
+                COLUMN_HOUR + " INTEGER NOT NULL, " +
+                COLUMN_ON_TIME + " INTEGER NOT NULL DEFAULT 0, " +
+                "PRIMARY KEY (" + COLUMN_WEEKDAY + ", " + COLUMN_HOUR + ")" +
+                ");");
+        db.execSQL("CREATE TABLE " + TABLE_HISTOGRAM + suffix + " (" +
+                COLUMN_BUCKET + " INTEGER PRIMARY KEY, " +
+                COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0" +
+                ");");
+        db.execSQL("CREATE TABLE " + TABLE_SUMMARY + suffix + " (" +
+                "_id INTEGER PRIMARY KEY, " +
+                COLUMN_TOTAL_UNLOCKS + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_DAY_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_LONGEST_OFF + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_LAST_SESSION_END + " INTEGER NOT NULL DEFAULT -1" +
+                ");");
+        db.execSQL("INSERT INTO " + TABLE_SUMMARY + suffix + " (_id) VALUES (1)");
+    }
+
+    static void dropTables(SQLiteDatabase db, String suffix) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_DAILY + suffix);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_HOURLY + suffix);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_HISTOGRAM + suffix);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SUMMARY + suffix);
+    }
+
+    // 用重建好的影子表替换汇总表，在替换使用时段表的同一事务中调用
+    static void replaceTables(SQLiteDatabase db, String suffix) {
+        for (String table : new String[]{TABLE_DAILY, TABLE_HOURLY, TABLE_HISTOGRAM, TABLE_SUMMARY}) {
+            db.execSQL("DROP TABLE " + table);
+            db.execSQL("ALTER TABLE " + table + suffix + " RENAME TO " + table);
+        }
+    }
+
+    // 记录一次解锁
+    public static void recordUnlock(SQLiteDatabase db, long time, int zoneOffset) {
+        recordUnlock(db, "", time, zoneOffset);
+    }
+
+    static void recordUnlock(SQLiteDatabase db, String suffix, long time, int zoneOffset) {
+        String day = TimeBuckets.formatDay(TimeBuckets.localDay(time, zoneOffset));
+        ensureDay(db, suffix, day);
+        db.execSQL("UPDATE " + TABLE_DAILY + suffix + " SET " + COLUMN_UNLOCKS + " = " + COLUMN_UNLOCKS + " + 1 WHERE " +
+                COLUMN_DAY + " = ?", new Object[]{day});
+        db.execSQL("UPDATE " + TABLE_SUMMARY + suffix + " SET " + COLUMN_TOTAL_UNLOCKS + " = " + COLUMN_TOTAL_UNLOCKS + " + 1");
+    }
+
+    // 记录一个已结束的使用时段
+    public static void recordSession(SQLiteDatabase db, long startTime, long endTime, int zoneOffset) {
+        recordSession(db, "", startTime, endTime, zoneOffset);
+    }
+
+    static void recordSession(SQLiteDatabase db, String suffix, long startTime, long endTime, int zoneOffset) {
+        if (endTime < startTime) {
+            return;
+        }
+
+        // 按小时切分，累加到每日汇总和星期 × 小时热力图；整个时段使用亮屏时的时区偏移
+        long sliceStart = startTime;
+        while (sliceStart < endTime) {
+            long millisOfDay = TimeBuckets.millisOfDay(sliceStart, zoneOffset);
+            long sliceEnd = Math.min(endTime,
+                    sliceStart + TimeBuckets.HOUR_MILLIS - millisOfDay % TimeBuckets.HOUR_MILLIS);
+            long sliceTime = sliceEnd - sliceStart;
+
+            int localDay = TimeBuckets.localDay(sliceStart, zoneOffset);
+            String day = TimeBuckets.formatDay(localDay);
+            ensureDay(db, suffix, day);
+            db.execSQL("UPDATE " + TABLE_DAILY + suffix + " SET " + COLUMN_ON_TIME + " = " + COLUMN_ON_TIME + " + ? WHERE " +
+                    COLUMN_DAY + " = ?", new Object[]{sliceTime, day});
+            addHourly(db, suffix, TimeBuckets.weekday(localDay), (int) (millisOfDay / TimeBuckets.HOUR_MILLIS), sliceTime);
+
+            sliceStart = sliceEnd;
+        }
+
+        db.execSQL("INSERT OR IGNORE INTO " + TABLE_HISTOGRAM + suffix + " (" + COLUMN_BUCKET + ") VALUES (?)",
+                new Object[]{bucketOf(endTime - startTime)});
+        db.execSQL("UPDATE " + TABLE_HISTOGRAM + suffix + " SET " + COLUMN_COUNT + " = " + COLUMN_COUNT + " + 1 WHERE " +
+                COLUMN_BUCKET + " = ?", new Object[]{bucketOf(endTime - startTime)});
+
+        // 与上一个使用时段之间的熄屏间隔
+        db.execSQL("UPDATE " + TABLE_SUMMARY + suffix + " SET " +
+                COLUMN_LONGEST_OFF + " = CASE WHEN " + COLUMN_LAST_SESSION_END + " >= 0 AND ? - " +
+                COLUMN_LAST_SESSION_END + " > " + COLUMN_LONGEST_OFF + " THEN ? - " + COLUMN_LAST_SESSION_END +
+                " ELSE " + COLUMN_LONGEST_OFF + " END, " +
+                COLUMN_LAST_SESSION_END + " = MAX(" + COLUMN_LAST_SESSION_END + ", ?)",
+                new Object[]{startTime, startTime, endTime});
+    }
+
+    // 清空汇总并根据使用时段表和亮屏事件重新计算
+    public static void rebuild(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_DAILY, null, null);
+            db.delete(TABLE_HOURLY, null, null);
+            db.delete(TABLE_HISTOGRAM, null, null);
+            db.delete(TABLE_SUMMARY, null, null);
+            db.execSQL("INSERT INTO " + TABLE_SUMMARY + " (_id) VALUES (1)");
+
+            Cursor sessions = db.rawQuery("SELECT " + DatabaseHelper.COLUMN_START_TIME + ", " +
+                    DatabaseHelper.COLUMN_END_TIME + ", " + DatabaseHelper.COLUMN_ZONE_OFFSET + " FROM " +
+                    DatabaseHelper.TABLE_SESSIONS + " ORDER BY " + DatabaseHelper.COLUMN_START_TIME + " ASC", null);
+            while (sessions.moveToNext()) {
+                recordSession(db, sessions.getLong(0), sessions.getLong(1), sessions.getInt(2));
+            }
+            sessions.close();
+
+            // 解锁次数按解锁事件统计；开始记录解锁事件之前的旧数据以亮屏次数代替
+            Cursor unlocks = db.rawQuery("SELECT " + DatabaseHelper.COLUMN_TIME + ", " +
+                    DatabaseHelper.COLUMN_ZONE_OFFSET + " FROM " +
+                    DatabaseHelper.TABLE_NAME + " WHERE " + DatabaseHelper.LOCAL_EVENTS + " AND (" +
+                    DatabaseHelper.COLUMN_EVENT_TYPE + " = " + DatabaseHelper.EVENT_USER_PRESENT + " OR (" +
+                    DatabaseHelper.COLUMN_EVENT_TYPE + " = " + DatabaseHelper.EVENT_SCREEN_ON + " AND " +
+                    DatabaseHelper.COLUMN_ID + " < IFNULL((SELECT MIN(" + DatabaseHelper.COLUMN_ID +
+                    ") FROM " + DatabaseHelper.TABLE_NAME + " WHERE " + DatabaseHelper.LOCAL_EVENTS + " AND " +
+                    DatabaseHelper.COLUMN_EVENT_TYPE + " = " + DatabaseHelper.EVENT_USER_PRESENT + "), " +
+                    Long.MAX_VALUE + ")))",
+                    null);
+            while (unlocks.moveToNext()) {
+                recordUnlock(db, unlocks.getLong(0), unlocks.getInt(1));
+            }
+            unlocks.close();
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.d(TAG, "Usage summaries rebuilt");
+    }
+
+    // 读取统计页面所需的全部汇总数据
+    public static Snapshot load(SQLiteDatabase db) {
+        Snapshot snapshot = new Snapshot();
+
+        Cursor summary = db.rawQuery("SELECT " + COLUMN_TOTAL_UNLOCKS + ", " + COLUMN_DAY_COUNT + ", " +
+                COLUMN_LONGEST_OFF + " FROM " + TABLE_SUMMARY + " LIMIT 1", null);
+        if (summary.moveToFirst()) {
+            long totalUnlocks = summary.getLong(0);
+            int dayCount = summary.getInt(1);
+            snapshot.averageUnlocksPerDay = dayCount > 0 ? totalUnlocks / (float) dayCount : 0;
+            snapshot.longestOffStreak = summary.getLong(2);
+        }
+        summary.close();
+
+        Cursor today = db.rawQuery("SELECT " + COLUMN_UNLOCKS + ", " + COLUMN_ON_TIME + " FROM " + TABLE_DAILY +
+                " WHERE " + COLUMN_DAY + " = ?", new String[]{formatDay(System.currentTimeMillis())});
+        if (today.moveToFirst()) {
+            snapshot.todayUnlocks = today.getInt(0);
+            snapshot.todayOnTime = today.getLong(1);
+        }
+        today.close();
+
+        Cursor hourly = db.rawQuery("SELECT " + COLUMN_WEEKDAY + ", " + COLUMN_HOUR + ", " + COLUMN_ON_TIME +
+                " FROM " + TABLE_HOURLY, null);
+        while (hourly.moveToNext()) {
+            snapshot.weekdayHourOnTime[hourly.getInt(0) * 24 + hourly.getInt(1)] = hourly.getLong(2);
+        }
+        hourly.close();
+
+        // 从直方图中找到中位数所在的桶
+        Cursor histogram = db.rawQuery("SELECT " + COLUMN_BUCKET + ", " + COLUMN_COUNT + ", " +
+                "(SELECT SUM(" + COLUMN_COUNT + ") FROM " + TABLE_HISTOGRAM + ") FROM " + TABLE_HISTOGRAM +
+                " ORDER BY " + COLUMN_BUCKET + " ASC", null);
+        long seen = 0;
+        while (histogram.moveToNext()) {
+            seen += histogram.getLong(1);
+            if (seen * 2 >= histogram.getLong(2)) {
+                snapshot.medianSessionLength = bucketMidpoint(histogram.getInt(0));
+                break;
+            }
+        }
+        histogram.close();
+
+        return snapshot;
+    }
+
+    private static void ensureDay(SQLiteDatabase db, String suffix, String day) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_DAY, day);
+        long rowId = db.insertWithOnConflict(TABLE_DAILY + suffix, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        if (rowId != -1) {
+            db.execSQL("UPDATE " + TABLE_SUMMARY + suffix + " SET " + COLUMN_DAY_COUNT + " = " + COLUMN_DAY_COUNT + " + 1");
+        }
+    }
+
+    private static void addHourly(SQLiteDatabase db, String suffix, int weekday, int hour, long onTime) {
+        db.execSQL("INSERT OR IGNORE INTO " + TABLE_HOURLY + suffix + " (" + COLUMN_WEEKDAY + ", " + COLUMN_HOUR +
+                ") VALUES (?, ?)", new Object[]{weekday, hour});
+        db.execSQL("UPDATE " + TABLE_HOURLY + suffix + " SET " + COLUMN_ON_TIME + " = " + COLUMN_ON_TIME + " + ? WHERE " +
+                COLUMN_WEEKDAY + " = ? AND " + COLUMN_HOUR + " = ?", new Object[]{onTime, weekday, hour});
+    }
+
+    private static int bucketOf(long duration) {
+        double seconds = Math.max(1, duration / 1000.0);
+        return (int) Math.floor(Math.log(seconds) / Math.log(2) * BUCKETS_PER_DOUBLING);
+    }
+
+    private static long bucketMidpoint(int bucket) {
+        return (long) (1000 * Math.pow(2, (bucket + 0.5) / BUCKETS_PER_DOUBLING));
+    }
+
+    // 按当前时区格式化time所在的日期
+    static String formatDay(long time) {
+        return TimeBuckets.formatDay(TimeBuckets.localDay(time, TimeBuckets.zoneOffset(time)));
+    }
+
+    // 统计页面使用的汇总快照
+    public static class Snapshot {
+        int todayUnlocks;
+        long todayOnTime;
+        float averageUnlocksPerDay;
+        long medianSessionLength;
+        long longestOffStreak;
+        // 下标为 星期 * 24 + 小时
+        final long[] weekdayHourOnTime = new long[7 * 24];
+    }
+}
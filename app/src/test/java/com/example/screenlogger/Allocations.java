@@ -0,0 +1,22 @@
+package com.example.screenlogger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * 性能测试共用的内存分配计数。
+ */
+final class Allocations {
+
+    private Allocations() {
+    }
+
+    // 当前线程累计分配的字节数，JVM不支持时返回-1
+    static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.screenlogger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 增量文件分块加密的往返、篡改检测和吞吐量测试（纯JVM，不需要Android运行时）。
+ */
+public class ChangeSetCipherTest {
+
+    // 一个块大约是BLOCK_SIZE / 45 ≈ 360个事件
+    private static final int EVENT_COUNT = 200000;
+    // 每个事件加密或解密的耗时上限（纳秒），约为桌面JVM上实测值（0.1~0.6微秒）的2~3倍
+    private static final long NANOS_PER_EVENT_BUDGET = 1500;
+    // 加密导出相对明文导出的额外内存分配上限（字节/事件），实测约190字节
+    private static final long ALLOCATION_PER_EVENT_BUDGET = 384;
+
+    private static byte[] salt;
+    private static SecretKey key;
+    private static SecretKey otherKey;
+
+    @BeforeClass
+    public static void deriveKeys() throws Exception {
+        salt = ChangeSetCipher.newSalt();
+        key = ChangeSetCipher.deriveKey("correct horse", salt);
+        otherKey = ChangeSetCipher.deriveKey("battery staple", salt);
+    }
+
+    @Test
+    public void keyDependsOnTheGroupSalt() throws Exception {
+        // 同一组内相同口令得到相同密钥，不同组（不同的盐）的相同口令得到不同密钥
+        assertArrayEquals(key.getEncoded(), ChangeSetCipher.deriveKey("correct horse", salt).getEncoded());
+        byte[] otherSalt = ChangeSetCipher.newSalt();
+        assertFalse(Arrays.equals(salt, otherSalt));
+        SecretKey otherGroupKey = ChangeSetCipher.deriveKey("correct horse", otherSalt);
+        assertFalse(Arrays.equals(key.getEncoded(), otherGroupKey.getEncoded()));
+        assertRejected(otherGroupKey, encrypt(key, randomBytes(100)));
+    }
+
+    @Test
+    public void roundTripAcrossBlockBoundaries() throws Exception {
+        int[] sizes = {0, 1, ChangeSetCipher.BLOCK_SIZE - 1, ChangeSetCipher.BLOCK_SIZE,
+                ChangeSetCipher.BLOCK_SIZE + 1, 5 * ChangeSetCipher.BLOCK_SIZE + 17};
+        for (int size : sizes) {
+            byte[] data = randomBytes(size);
+            assertArrayEquals("size " + size, data, decrypt(key, encrypt(key, data)));
+        }
+    }
+
+    @Test
+    public void plaintextIsAcceptedOnlyWithoutKey() throws Exception {
+        byte[] data = "device\n2026-10-19 08:00:00\t1\t1760832000000\t28800000\n".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(data, decrypt(null, data));
+        assertRejected(key, data);
+    }
+
+    @Test
+    public void encryptedFileNeedsTheSameKey() throws Exception {
+        byte[] encrypted = encrypt(key, randomBytes(1000));
+        assertRejected(null, encrypted);
+        assertRejected(otherKey, encrypted);
+    }
+
+    @Test
+    public void tamperingIsDetected() throws Exception {
+        byte[] encrypted = encrypt(key, randomBytes(3 * ChangeSetCipher.BLOCK_SIZE + 100));
+        int blockLength = 4 + 12 + ChangeSetCipher.BLOCK_SIZE + 16;
+
+        // 修改一个字节
+        byte[] flipped = encrypted.clone();
+        flipped[4 + blockLength + 40] ^= 1;
+        assertRejected(key, flipped);
+
+        // 调换前两块
+        byte[] swapped = encrypted.clone();
+        System.arraycopy(encrypted, 4, swapped, 4 + blockLength, blockLength);
+        System.arraycopy(encrypted, 4 + blockLength, swapped, 4, blockLength);
+        assertRejected(key, swapped);
+
+        // 截掉最后一块（剩下的块都完整）
+        assertRejected(key, Arrays.copyOf(encrypted, 4 + 3 * blockLength));
+        // 截断在块中间
+        assertRejected(key, Arrays.copyOf(encrypted, encrypted.length - 10));
+        // 末尾追加数据
+        assertRejected(key, Arrays.copyOf(encrypted, encrypted.length + 1));
+    }
+
+    @Test
+    public void throughputStaysWithinBudget() throws Exception {
+        byte[] lines = changeSetLines(EVENT_COUNT);
+
+        // 预热JIT
+        for (int i = 0; i < 3; i++) {
+            decrypt(key, encrypt(key, lines));
+        }
+
+        long plainStart = System.nanoTime();
+        copy(new ByteArrayInputStream(lines), new ByteArrayOutputStream(lines.length));
+        long plainNanos = System.nanoTime() - plainStart;
+
+        long allocatedBefore = Allocations.allocatedBytes();
+        long encryptStart = System.nanoTime();
+        byte[] encrypted = encrypt(key, lines);
+        long encryptNanos = System.nanoTime() - encryptStart;
+        long decryptStart = System.nanoTime();
+        byte[] decrypted = decrypt(key, encrypted);
+        long decryptNanos = System.nanoTime() - decryptStart;
+        long allocated = Allocations.allocatedBytes() - allocatedBefore;
+
+        assertArrayEquals(lines, decrypted);
+        System.out.println("Change set of " + EVENT_COUNT + " events: plain copy " + plainNanos / EVENT_COUNT +
+                " ns/event, encrypt " + encryptNanos / EVENT_COUNT + " ns/event, decrypt " +
+                decryptNanos / EVENT_COUNT + " ns/event, size overhead " +
+                (encrypted.length - lines.length) * 100.0 / lines.length + "%");
+        assertTrue("encrypt " + encryptNanos / EVENT_COUNT + " ns/event",
+                encryptNanos / EVENT_COUNT < NANOS_PER_EVENT_BUDGET);
+        assertTrue("decrypt " + decryptNanos / EVENT_COUNT + " ns/event",
+                decryptNanos / EVENT_COUNT < NANOS_PER_EVENT_BUDGET);
+        if (allocated >= 0) {
+            // 两个结果数组本身约为 2 × 原文长度，其余应只是每块一次的缓冲
+            long overhead = allocated - 4L * lines.length;
+            assertTrue("allocated " + overhead / EVENT_COUNT + " extra bytes/event",
+                    overhead / EVENT_COUNT < ALLOCATION_PER_EVENT_BUDGET);
+        }
+    }
+
+    private static void assertRejected(SecretKey key, byte[] data) {
+        try {
+            decrypt(key, data);
+            fail("Change set should have been rejected");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+
+    private static byte[] encrypt(SecretKey key, byte[] data) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length + 64);
+        OutputStream out = ChangeSetCipher.encrypt(buffer, key);
+        out.write(data);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    private static byte[] decrypt(SecretKey key, byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        copy(ChangeSetCipher.decrypt(new ByteArrayInputStream(data), key), out);
+        return out.toByteArray();
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    // 与SyncManager导出的格式相同的事件行
+    private static byte[] changeSetLines(int count) {
+        StringBuilder builder = new StringBuilder(count * 48);
+        builder.append("device\n");
+        long time = 1760832000000L;
+        for (int i = 0; i < count; i++) {
+            builder.append("2026-10-19 08:00:00\t").append(1 + i % 3).append('\t').append(time + i * 1000L)
+                    .append("\t28800000\n");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
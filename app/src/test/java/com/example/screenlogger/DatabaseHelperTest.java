@@ -0,0 +1,312 @@
+package com.example.screenlogger;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 事件写入、使用时段的增量维护和重建，以及从版本1开始的迁移（Robolectric）。
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DatabaseHelperTest {
+
+    private static final String MIGRATION_DATABASE = "migration_test.db";
+    private static final long MINUTE = 60 * 1000L;
+    private static final int ZONE_OFFSET = 8 * 60 * 60 * 1000;
+    // 2025-10-19 12:00（UTC+8）
+    private static final long NOON = 1760832000000L + 4 * 60 * MINUTE;
+
+    // 逐条写入事件的耗时（微秒）和测试线程内存分配上限（字节）。每次写入是一个包含事件、
+    // 使用时段、汇总和位图的短事务，按桌面JVM上原生SQLite的估计值设定；
+    // 有了实测基线之后应收紧到实测值的2~3倍
+    private static final int BENCHMARK_EVENTS = 4000;
+    private static final long MICROS_PER_EVENT_BUDGET = 1000;
+    private static final long ALLOCATION_PER_EVENT_BUDGET = 32 * 1024;
+    // 打开版本1的数据库并完成迁移和重建的耗时上限（估计值）
+    private static final long MIGRATION_MILLIS_BUDGET = 3000;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        dbHelper = new DatabaseHelper(context, null);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(MIGRATION_DATABASE);
+    }
+
+    @Test
+    public void insertedEventsFormSessionsAndDailyUsage() {
+        insert(DatabaseHelper.EVENT_SCREEN_ON, NOON, 10000);
+        insert(DatabaseHelper.EVENT_USER_PRESENT, NOON + 1000, 11000);
+        insert(DatabaseHelper.EVENT_SCREEN_OFF, NOON + 5 * MINUTE, 10000 + 5 * MINUTE);
+        // 没有亮屏的熄屏不生成使用时段
+        insert(DatabaseHelper.EVENT_SCREEN_OFF, NOON + 10 * MINUTE, -1);
+        // 亮屏后只在锁屏界面停留
+        insert(DatabaseHelper.EVENT_SCREEN_ON, NOON + 20 * MINUTE, -1);
+        insert(DatabaseHelper.EVENT_SCREEN_OFF, NOON + 21 * MINUTE, -1);
+
+        List<DatabaseHelper.Session> sessions = querySessions();
+        assertEquals(2, sessions.size());
+        assertEquals(NOON, sessions.get(0).getStartTime());
+        assertEquals(5 * MINUTE, sessions.get(0).getDuration());
+        assertTrue(sessions.get(0).isUnlocked());
+        assertEquals(ZONE_OFFSET, sessions.get(0).getZoneOffset());
+        assertEquals(MINUTE, sessions.get(1).getDuration());
+        assertFalse(sessions.get(1).isUnlocked());
+        assertEquals(NOON, dbHelper.getLastSessionStartBefore(NOON + 20 * MINUTE));
+
+        int day = TimeBuckets.localDay(NOON, ZONE_OFFSET);
+        CursorIterator<DatabaseHelper.DailyUsage> daily = dbHelper.queryDailyUsage(day, day + 1);
+        assertTrue(daily.hasNext());
+        DatabaseHelper.DailyUsage usage = daily.next();
+        assertFalse(daily.hasNext());
+        assertEquals(TimeBuckets.formatDay(day), usage.getDay());
+        assertEquals(1, usage.getUnlocks());
+        assertEquals(6 * MINUTE, usage.getOnTime());
+    }
+
+    @Test
+    public void rangeQueriesReturnHalfOpenRanges() {
+        insert(DatabaseHelper.EVENT_SCREEN_ON, NOON, -1);
+        insert(DatabaseHelper.EVENT_USER_PRESENT, NOON + MINUTE, -1);
+        insert(DatabaseHelper.EVENT_SCREEN_OFF, NOON + 5 * MINUTE, -1);
+        insert(DatabaseHelper.EVENT_SCREEN_ON, NOON + 30 * MINUTE, -1);
+        insert(DatabaseHelper.EVENT_SCREEN_OFF, NOON + 40 * MINUTE, -1);
+        insert(DatabaseHelper.EVENT_SCREEN_ON, NOON + 70 * MINUTE, -1);
+        insert(DatabaseHelper.EVENT_USER_PRESENT, NOON + 71 * MINUTE, -1);
+        insert(DatabaseHelper.EVENT_SCREEN_OFF, NOON + 75 * MINUTE, -1);
+
+        // 结束时间不包含在内
+        List<DatabaseHelper.ScreenEvent> events = toList(dbHelper.queryEvents(NOON + MINUTE, NOON + 40 * MINUTE));
+        assertEquals(3, events.size());
+        assertEquals(DatabaseHelper.EVENT_USER_PRESENT, events.get(0).getEventType());
+        assertEquals(NOON + 30 * MINUTE, events.get(2).getTime());
+
+        List<DatabaseHelper.ScreenEvent> offs = toList(dbHelper.queryEvents(NOON, NOON + 75 * MINUTE,
+                DatabaseHelper.EVENT_SCREEN_OFF));
+        assertEquals(2, offs.size());
+        assertEquals(NOON + 5 * MINUTE, offs.get(0).getTime());
+        assertEquals(NOON + 40 * MINUTE, offs.get(1).getTime());
+
+        assertEquals(NOON + MINUTE, dbHelper.getFirstUnlockAfter(NOON));
+        assertEquals(NOON + MINUTE, dbHelper.getFirstUnlockAfter(NOON + MINUTE));
+        assertEquals(NOON + 71 * MINUTE, dbHelper.getFirstUnlockAfter(NOON + MINUTE + 1));
+        assertEquals(-1, dbHelper.getFirstUnlockAfter(NOON + 72 * MINUTE));
+
+        // 按小时分桶：第一个小时两个使用时段，第二个小时一个，之后的空桶不返回
+        List<DatabaseHelper.UsageBucket> buckets = toList(dbHelper.queryUsageBuckets(NOON, NOON + 3 * 60 * MINUTE,
+                60 * MINUTE));
+        assertEquals(2, buckets.size());
+        assertEquals(NOON, buckets.get(0).getStartTime());
+        assertEquals(NOON + 60 * MINUTE, buckets.get(0).getEndTime());
+        assertEquals(2, buckets.get(0).getSessionCount());
+        assertEquals(15 * MINUTE, buckets.get(0).getTotalOnTime());
+        assertEquals(NOON + 60 * MINUTE, buckets.get(1).getStartTime());
+        assertEquals(1, buckets.get(1).getSessionCount());
+        assertEquals(5 * MINUTE, buckets.get(1).getTotalOnTime());
+        // 开始时间等于范围结束的使用时段不计入
+        assertEquals(1, toList(dbHelper.queryUsageBuckets(NOON, NOON + 30 * MINUTE, 60 * MINUTE)).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void usageBucketsRequireAPositiveLength() {
+        dbHelper.queryUsageBuckets(NOON, NOON + MINUTE, 0);
+    }
+
+    @Test
+    public void rebuildMatchesIncrementalSessions() {
+        insert(DatabaseHelper.EVENT_SCREEN_ON, NOON, -1);
+        insert(DatabaseHelper.EVENT_SCREEN_OFF, NOON + 5 * MINUTE, -1);
+        // 跨过零点的使用时段，重建时由相邻两天的配对结果拼接
+        long lateNight = NOON + 11 * 60 * MINUTE + 50 * MINUTE;
+        insert(DatabaseHelper.EVENT_SCREEN_ON, lateNight, -1);
+        insert(DatabaseHelper.EVENT_USER_PRESENT, lateNight + MINUTE, -1);
+        insert(DatabaseHelper.EVENT_SCREEN_OFF, lateNight + 20 * MINUTE, -1);
+        // 第二天亮屏后异常重启，第三天开机后的熄屏不能与重启前的亮屏配对
+        long secondEvening = NOON + 34 * 60 * MINUTE;
+        insert(DatabaseHelper.EVENT_SCREEN_ON, secondEvening, -1);
+        insert(DatabaseHelper.EVENT_BOOT, secondEvening + 10 * 60 * MINUTE, -1);
+        insert(DatabaseHelper.EVENT_SCREEN_OFF, secondEvening + 10 * 60 * MINUTE + MINUTE, -1);
+
+        List<DatabaseHelper.Session> incremental = querySessions();
+        assertEquals(2, incremental.size());
+
+        assertEquals(2, dbHelper.rebuildSessions());
+        List<DatabaseHelper.Session> rebuilt = querySessions();
+        assertEquals(incremental.size(), rebuilt.size());
+        for (int i = 0; i < rebuilt.size(); i++) {
+            assertEquals(incremental.get(i).getStartTime(), rebuilt.get(i).getStartTime());
+            assertEquals(incremental.get(i).getEndTime(), rebuilt.get(i).getEndTime());
+            assertEquals(incremental.get(i).isUnlocked(), rebuilt.get(i).isUnlocked());
+        }
+        assertEquals(20 * MINUTE, rebuilt.get(1).getDuration());
+        assertTrue(rebuilt.get(1).isUnlocked());
+    }
+
+    @Test
+    public void rebuildReplacesTablesLeftByAnInterruptedRebuild() {
+        insert(DatabaseHelper.EVENT_SCREEN_ON, NOON, -1);
+        insert(DatabaseHelper.EVENT_USER_PRESENT, NOON + 1000, -1);
+        insert(DatabaseHelper.EVENT_SCREEN_OFF, NOON + 5 * MINUTE, -1);
+        // 上次重建中途被结束时留下的影子表
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.execSQL("CREATE TABLE " + DatabaseHelper.TABLE_SESSIONS + SessionBackfill.SHADOW_SUFFIX + " (stale INTEGER)");
+
+        assertEquals(1, dbHelper.rebuildSessions());
+        Cursor shadows = db.rawQuery("SELECT COUNT(*) FROM sqlite_master WHERE name LIKE ?",
+                new String[]{"%" + SessionBackfill.SHADOW_SUFFIX});
+        shadows.moveToFirst();
+        assertEquals(0, shadows.getInt(0));
+        shadows.close();
+
+        // 替换后的表照常增量维护
+        insert(DatabaseHelper.EVENT_SCREEN_ON, NOON + 10 * MINUTE, -1);
+        insert(DatabaseHelper.EVENT_SCREEN_OFF, NOON + 11 * MINUTE, -1);
+        assertEquals(2, querySessions().size());
+        int day = TimeBuckets.localDay(NOON, ZONE_OFFSET);
+        CursorIterator<DatabaseHelper.DailyUsage> daily = dbHelper.queryDailyUsage(day, day + 1);
+        DatabaseHelper.DailyUsage usage = daily.next();
+        daily.close();
+        assertEquals(6 * MINUTE, usage.getOnTime());
+    }
+
+    @Test
+    public void insertStaysWithinBudget() {
+        // 预热
+        for (int i = 0; i < 100; i++) {
+            insert(i % 2 == 0 ? DatabaseHelper.EVENT_SCREEN_ON : DatabaseHelper.EVENT_SCREEN_OFF, NOON + i * MINUTE, -1);
+        }
+
+        long allocatedBefore = Allocations.allocatedBytes();
+        long start = System.nanoTime();
+        long time = NOON + 100 * MINUTE;
+        for (int i = 0; i < BENCHMARK_EVENTS / 4; i++) {
+            insert(DatabaseHelper.EVENT_SCREEN_ON, time, -1);
+            insert(DatabaseHelper.EVENT_USER_PRESENT, time + 1000, -1);
+            insert(DatabaseHelper.EVENT_SCREEN_OFF, time + 3 * MINUTE, -1);
+            insert(DatabaseHelper.EVENT_DOZE_ENTER, time + 4 * MINUTE, -1);
+            time += 10 * MINUTE;
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        long allocated = Allocations.allocatedBytes() - allocatedBefore;
+
+        System.out.println("Inserted " + BENCHMARK_EVENTS + " events in " + micros / 1000 + "ms, " +
+                (allocated >= 0 ? allocated / BENCHMARK_EVENTS + " bytes/event allocated" : "allocation unknown"));
+        assertEquals(50 + BENCHMARK_EVENTS / 4, querySessions().size());
+        assertTrue("insert took " + micros / BENCHMARK_EVENTS + "us/event",
+                micros < MICROS_PER_EVENT_BUDGET * BENCHMARK_EVENTS);
+        if (allocated >= 0) {
+            assertTrue("allocated " + allocated / BENCHMARK_EVENTS + " bytes/event",
+                    allocated / BENCHMARK_EVENTS < ALLOCATION_PER_EVENT_BUDGET);
+        }
+    }
+
+    @Test
+    public void migratesVersionOneDatabase() {
+        // 版本1的结构：事件类型为文本，只有本地时间字符串
+        SQLiteDatabase legacy = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(MIGRATION_DATABASE), null);
+        legacy.execSQL("CREATE TABLE screen_events (_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "event_type TEXT NOT NULL, timestamp TEXT NOT NULL);");
+        String[][] rows = {
+                {"SCREEN_ON", "2025-10-19 12:00:00"},
+                {"SCREEN_OFF", "2025-10-19 12:05:00"},
+                {"SCREEN_ON", "2025-10-19 13:00:00"},
+                {"SCREEN_OFF", "2025-10-19 13:01:30"},
+                {"SCREEN_ON", "2025-10-19 14:00:00"},
+        };
+        for (String[] row : rows) {
+            legacy.execSQL("INSERT INTO screen_events (event_type, timestamp) VALUES (?, ?)", row);
+        }
+        legacy.setVersion(1);
+        legacy.close();
+
+        long start = System.nanoTime();
+        DatabaseHelper migrated = new DatabaseHelper(context, MIGRATION_DATABASE);
+        try {
+            SQLiteDatabase db = migrated.getWritableDatabase();
+            // 升级本身不重建，由后台任务执行；这里直接执行（后台任务先执行时等待其完成）
+            migrated.runPendingRebuild();
+            assertFalse(migrated.runPendingRebuild());
+            long millis = (System.nanoTime() - start) / 1000000;
+
+            Cursor events = db.rawQuery("SELECT " + DatabaseHelper.COLUMN_EVENT_TYPE + ", " +
+                    DatabaseHelper.COLUMN_TIME + ", " + DatabaseHelper.COLUMN_DEVICE_ID + " FROM " +
+                    DatabaseHelper.TABLE_NAME + " ORDER BY " + DatabaseHelper.COLUMN_ID, null);
+            int[] expectedTypes = {DatabaseHelper.EVENT_SCREEN_ON, DatabaseHelper.EVENT_SCREEN_OFF,
+                    DatabaseHelper.EVENT_SCREEN_ON, DatabaseHelper.EVENT_SCREEN_OFF, DatabaseHelper.EVENT_SCREEN_ON};
+            long[] times = new long[expectedTypes.length];
+            assertEquals(expectedTypes.length, events.getCount());
+            for (int i = 0; events.moveToNext(); i++) {
+                assertEquals(expectedTypes[i], events.getInt(0));
+                times[i] = events.getLong(1);
+                assertEquals(DatabaseHelper.LOCAL_DEVICE, events.getString(2));
+            }
+            events.close();
+            assertEquals(5 * MINUTE, times[1] - times[0]);
+
+            // 最后一个亮屏还没有熄屏，不生成使用时段
+            List<DatabaseHelper.Session> sessions = new ArrayList<>();
+            CursorIterator<DatabaseHelper.Session> iterator = migrated.querySessions(0, Long.MAX_VALUE);
+            while (iterator.hasNext()) {
+                sessions.add(iterator.next());
+            }
+            assertEquals(2, sessions.size());
+            assertEquals(times[0], sessions.get(0).getStartTime());
+            assertEquals(5 * MINUTE, sessions.get(0).getDuration());
+            assertEquals(90 * 1000L, sessions.get(1).getDuration());
+
+            // 派生的汇总随重建生成；旧数据没有解锁事件，以亮屏次数代替
+            Cursor daily = db.rawQuery("SELECT SUM(" + UsageSummaries.COLUMN_UNLOCKS + "), SUM(" +
+                    UsageSummaries.COLUMN_ON_TIME + ") FROM " + UsageSummaries.TABLE_DAILY, null);
+            assertTrue(daily.moveToFirst());
+            assertEquals(3, daily.getInt(0));
+            assertEquals(6 * MINUTE + 30 * 1000L, daily.getLong(1));
+            daily.close();
+
+            assertTrue("migration took " + millis + "ms", millis < MIGRATION_MILLIS_BUDGET);
+        } finally {
+            migrated.close();
+        }
+    }
+
+    private void insert(int eventType, long time, long elapsedRealtime) {
+        dbHelper.insertScreenEvent(eventType, time, elapsedRealtime, ZONE_OFFSET);
+    }
+
+    private static <T> List<T> toList(CursorIterator<T> iterator) {
+        List<T> items = new ArrayList<>();
+        while (iterator.hasNext()) {
+            items.add(iterator.next());
+        }
+        return items;
+    }
+
+    private List<DatabaseHelper.Session> querySessions() {
+        List<DatabaseHelper.Session> sessions = new ArrayList<>();
+        CursorIterator<DatabaseHelper.Session> iterator = dbHelper.querySessions(0, Long.MAX_VALUE);
+        while (iterator.hasNext()) {
+            sessions.add(iterator.next());
+        }
+        return sessions;
+    }
+}
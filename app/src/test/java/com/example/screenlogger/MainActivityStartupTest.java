@@ -0,0 +1,171 @@
+package com.example.screenlogger;
+
+import android.app.Activity;
+import android.app.Application;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.Looper;
+import android.view.ViewTreeObserver;
+
+import androidx.test.core.app.ActivityScenario;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.LooperMode;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 启动到首帧的耗时，以及首帧之前主线程不访问数据库（Robolectric，主线程Looper为PAUSED模式）。
+ * 以首次布局绘制前的OnPreDrawListener回调作为首帧；各Tab的数据应在BackgroundLoader线程中读取。
+ */
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class MainActivityStartupTest {
+
+    // 第二次启动（类已加载、资源已解析）到首帧的耗时上限，只用来发现数量级的退化，例如在主线程同步读库
+    private static final long FIRST_FRAME_MILLIS_BUDGET = 2000;
+    // 足够让主线程Looper执行完启动时投递的消息和首帧的Choreographer回调
+    private static final Duration SETTLE_TIME = Duration.ofSeconds(1);
+
+    private Application application;
+    private RecordingDatabaseHelper dbHelper;
+    private FirstFrameRecorder recorder;
+
+    @Before
+    public void setUp() {
+        application = RuntimeEnvironment.getApplication();
+        dbHelper = new RecordingDatabaseHelper(application);
+        DatabaseHelper.setInstance(dbHelper);
+        recorder = new FirstFrameRecorder();
+        application.registerActivityLifecycleCallbacks(recorder);
+    }
+
+    @After
+    public void tearDown() {
+        application.unregisterActivityLifecycleCallbacks(recorder);
+        DatabaseHelper.setInstance(null);
+        dbHelper.close();
+    }
+
+    @Test
+    public void firstFrameWithoutMainThreadDatabaseAccess() {
+        // 第一次启动加载类和资源，不计时
+        launchUntilFirstFrame().close();
+        recorder.reset();
+        dbHelper.reset();
+
+        long start = System.nanoTime();
+        ActivityScenario<MainActivity> scenario = launchUntilFirstFrame();
+        try {
+            long millis = (recorder.firstFrameNanos - start) / 1000000;
+            System.out.println("First frame " + millis + "ms after launch, main thread database access before it: " +
+                    dbHelper.mainThreadAccess);
+            assertTrue("database accessed on the main thread before the first frame: " + dbHelper.mainThreadAccess,
+                    dbHelper.mainThreadAccess.isEmpty());
+            assertTrue("first frame took " + millis + "ms", millis < FIRST_FRAME_MILLIS_BUDGET);
+        } finally {
+            scenario.close();
+        }
+    }
+
+    private ActivityScenario<MainActivity> launchUntilFirstFrame() {
+        ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class);
+        shadowOf(Looper.getMainLooper()).idleFor(SETTLE_TIME);
+        assertTrue("first frame was not drawn", recorder.firstFrameNanos > 0);
+        return scenario;
+    }
+
+    // 在Activity创建时挂上OnPreDrawListener，记录首帧时间，并通知数据库记录器首帧已经开始
+    private class FirstFrameRecorder implements Application.ActivityLifecycleCallbacks {
+        volatile long firstFrameNanos;
+
+        void reset() {
+            firstFrameNanos = 0;
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            final ViewTreeObserver observer = activity.getWindow().getDecorView().getViewTreeObserver();
+            observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    if (firstFrameNanos == 0) {
+                        firstFrameNanos = System.nanoTime();
+                        dbHelper.firstFrameDrawn = true;
+                    }
+                    return true;
+                }
+            });
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+
+    // 记录首帧之前在主线程上打开或读写数据库的调用
+    private static class RecordingDatabaseHelper extends DatabaseHelper {
+        final List<String> mainThreadAccess = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean firstFrameDrawn;
+
+        RecordingDatabaseHelper(Application application) {
+            super(application, null);
+        }
+
+        void reset() {
+            mainThreadAccess.clear();
+            firstFrameDrawn = false;
+        }
+
+        @Override
+        public SQLiteDatabase getReadableDatabase() {
+            record("getReadableDatabase");
+            return super.getReadableDatabase();
+        }
+
+        @Override
+        public SQLiteDatabase getWritableDatabase() {
+            record("getWritableDatabase");
+            return super.getWritableDatabase();
+        }
+
+        private void record(String method) {
+            if (!firstFrameDrawn && Looper.myLooper() == Looper.getMainLooper()) {
+                StackTraceElement[] stack = new Throwable().getStackTrace();
+                // 调用者是栈上第三帧：record、getXxxDatabase、调用者
+                mainThreadAccess.add(method + " from " + (stack.length > 2 ? stack[2] : "unknown"));
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.screenlogger;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 一百万条事件重建使用时段表的基准测试（Robolectric，内存数据库）。
+ * 预算远高于桌面JVM上的实测值，只用来发现数量级的退化，比如重新变成一次性把全部事件读入内存。
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SessionBackfillBenchmarkTest {
+
+    // 每个使用时段4个事件：亮屏、解锁、熄屏、进入休眠（不参与配对，会被查询过滤掉）
+    private static final int EVENT_COUNT = 1000000;
+    private static final int SESSION_COUNT = EVENT_COUNT / 4;
+    // 使用时段间隔10分钟，约覆盖4.75年
+    private static final long SESSION_INTERVAL = 10 * 60 * 1000L;
+    private static final long SESSION_LENGTH = 3 * 60 * 1000L;
+    private static final int ZONE_OFFSET = 8 * 60 * 60 * 1000;
+
+    // 包括汇总表和位图在内整个重建的耗时上限（每个事件约30微秒，估计值）
+    private static final long REBUILD_MILLIS_BUDGET = 30000;
+    // 测试线程每个事件的内存分配上限（字节，估计值），配对在ForkJoin线程中进行，不计入
+    private static final long ALLOCATION_PER_EVENT_BUDGET = 1024;
+    // 按天并行配对与时间线串行配对比较时，计时前各自预热的次数
+    private static final int WARMUP_RUNS = 3;
+
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        dbHelper = new DatabaseHelper(RuntimeEnvironment.getApplication(), null);
+        insertEvents(dbHelper.getWritableDatabase());
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void rebuildsMillionEventsWithinBudget() {
+        long allocatedBefore = Allocations.allocatedBytes();
+        long start = System.nanoTime();
+        int count = dbHelper.rebuildSessions();
+        long millis = (System.nanoTime() - start) / 1000000;
+        long allocated = Allocations.allocatedBytes() - allocatedBefore;
+
+        System.out.println("Rebuilt " + count + " sessions from " + EVENT_COUNT + " events in " + millis + "ms, " +
+                (allocated >= 0 ? allocated / EVENT_COUNT + " bytes/event allocated" : "allocation unknown"));
+        assertEquals(SESSION_COUNT, count);
+        assertEquals(SESSION_COUNT, queryLong("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_SESSIONS +
+                " WHERE " + DatabaseHelper.COLUMN_UNLOCKED + " = 1 AND " + DatabaseHelper.COLUMN_DURATION +
+                " = " + SESSION_LENGTH));
+        assertTrue("rebuild took " + millis + "ms", millis < REBUILD_MILLIS_BUDGET);
+        if (allocated >= 0) {
+            assertTrue("allocated " + allocated / EVENT_COUNT + " bytes/event",
+                    allocated / EVENT_COUNT < ALLOCATION_PER_EVENT_BUDGET);
+        }
+    }
+
+    @Test
+    public void parallelPairingMatchesSerialPairing() {
+        // 与重建读取相同的一百万条事件，分别用时间线的串行配对和重建的按天并行配对
+        List<DatabaseHelper.ScreenEvent> events = loadEvents();
+        List<List<DatabaseHelper.ScreenEvent>> days = splitByDay(events);
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                TimelineFragment.pairUsagePeriods(events, new ArrayList<TimelineFragment.UsagePeriod>());
+                SessionBackfill.pairDays(pool, days);
+            }
+
+            List<TimelineFragment.UsagePeriod> serial = new ArrayList<>();
+            long start = System.nanoTime();
+            TimelineFragment.pairUsagePeriods(events, serial);
+            long serialNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<TimelineFragment.UsagePeriod> parallel = SessionBackfill.pairDays(pool, days);
+            long parallelNanos = System.nanoTime() - start;
+
+            System.out.println("Paired " + EVENT_COUNT + " events: serial " + serialNanos / 1000000 + "ms, " +
+                    "parallel " + parallelNanos / 1000000 + "ms on " + pool.getParallelism() + " threads, " +
+                    String.format("speed-up %.2fx", serialNanos / (double) parallelNanos));
+            assertEquals(SESSION_COUNT, serial.size());
+            assertEquals(serial.size(), parallel.size());
+            for (int i = 0; i < serial.size(); i++) {
+                assertEquals(serial.get(i).startTime, parallel.get(i).startTime);
+                assertEquals(serial.get(i).endTime, parallel.get(i).endTime);
+                assertEquals(serial.get(i).unlocked, parallel.get(i).unlocked);
+            }
+            // 至少4个核心时按天并行应比串行快；单核或双核的机器上只报告比值
+            if (pool.getParallelism() >= 4) {
+                assertTrue("parallel pairing " + parallelNanos / 1000000 + "ms is not faster than serial " +
+                        serialNanos / 1000000 + "ms", parallelNanos < serialNanos);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void rebuildReplacesExistingSessions() {
+        dbHelper.rebuildSessions();
+        // 再次重建得到相同的结果，不会重复插入
+        assertEquals(SESSION_COUNT, dbHelper.rebuildSessions());
+        assertEquals(SESSION_COUNT, queryLong("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_SESSIONS));
+    }
+
+    // 按记录顺序读取参与配对的事件和解锁事件，与重建读取的事件相同
+    private List<DatabaseHelper.ScreenEvent> loadEvents() {
+        List<DatabaseHelper.ScreenEvent> events = new ArrayList<>(EVENT_COUNT);
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT " + DatabaseHelper.COLUMN_EVENT_TYPE + ", " +
+                DatabaseHelper.COLUMN_TIME + ", " + DatabaseHelper.COLUMN_ELAPSED_REALTIME + ", " +
+                DatabaseHelper.COLUMN_ZONE_OFFSET + " FROM " + DatabaseHelper.TABLE_NAME + " WHERE " +
+                DatabaseHelper.COLUMN_EVENT_TYPE + " IN " + DatabaseHelper.SESSION_EVENT_TYPES + " OR " +
+                DatabaseHelper.COLUMN_EVENT_TYPE + " = " + DatabaseHelper.EVENT_USER_PRESENT +
+                " ORDER BY " + DatabaseHelper.COLUMN_ID + " ASC", null);
+        try {
+            while (cursor.moveToNext()) {
+                DatabaseHelper.ScreenEvent event = new DatabaseHelper.ScreenEvent();
+                event.setEventType(cursor.getInt(0));
+                event.setTime(cursor.getLong(1));
+                event.setElapsedRealtime(cursor.getLong(2));
+                event.setZoneOffset(cursor.getInt(3));
+                events.add(event);
+            }
+        } finally {
+            cursor.close();
+        }
+        return events;
+    }
+
+    // 与SessionBackfill相同，按本地日期切分
+    private static List<List<DatabaseHelper.ScreenEvent>> splitByDay(List<DatabaseHelper.ScreenEvent> events) {
+        List<List<DatabaseHelper.ScreenEvent>> days = new ArrayList<>();
+        List<DatabaseHelper.ScreenEvent> currentDay = null;
+        int currentKey = 0;
+        for (DatabaseHelper.ScreenEvent event : events) {
+            int key = TimeBuckets.localDay(event.getTime(), event.getZoneOffset());
+            if (currentDay == null || key != currentKey) {
+                currentKey = key;
+                currentDay = new ArrayList<>();
+                days.add(currentDay);
+            }
+            currentDay.add(event);
+        }
+        return days;
+    }
+
+    private static void insertEvents(SQLiteDatabase db) {
+        SQLiteStatement statement = db.compileStatement("INSERT INTO " + DatabaseHelper.TABLE_NAME + " (" +
+                DatabaseHelper.COLUMN_EVENT_TYPE + ", " + DatabaseHelper.COLUMN_TIMESTAMP + ", " +
+                DatabaseHelper.COLUMN_TIME + ", " + DatabaseHelper.COLUMN_ZONE_OFFSET + ") VALUES (?, ?, ?, ?)");
+        long base = 1600000000000L;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < SESSION_COUNT; i++) {
+                long on = base + i * SESSION_INTERVAL;
+                insertEvent(statement, DatabaseHelper.EVENT_SCREEN_ON, on);
+                insertEvent(statement, DatabaseHelper.EVENT_USER_PRESENT, on + 1000);
+                insertEvent(statement, DatabaseHelper.EVENT_SCREEN_OFF, on + SESSION_LENGTH);
+                insertEvent(statement, DatabaseHelper.EVENT_DOZE_ENTER, on + SESSION_LENGTH + 60000);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    private static void insertEvent(SQLiteStatement statement, int eventType, long time) {
+        statement.bindLong(1, eventType);
+        // 只用于显示，内容不影响配对
+        statement.bindString(2, "");
+        statement.bindLong(3, time);
+        statement.bindLong(4, ZONE_OFFSET);
+        statement.executeInsert();
+    }
+
+    private long queryLong(String sql) {
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.screenlogger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 亮屏/熄屏事件配对的边界情况（纯JVM，只用到TimelineFragment和DatabaseHelper的静态方法）。
+ * 时间线、增量维护和SessionBackfill重建都使用同一套配对规则。
+ */
+public class SessionPairingTest {
+
+    private static final long SECOND = 1000;
+    private static final long BASE = 1760832000000L;
+
+    // 配对的事件数量和每个事件的耗时、内存分配上限，约为桌面JVM上实测值（11~20纳秒、14字节）的2~3倍
+    private static final int BENCHMARK_EVENTS = 1000000;
+    private static final long NANOS_PER_EVENT_BUDGET = 50;
+    private static final long ALLOCATION_PER_EVENT_BUDGET = 32;
+
+    @Test
+    public void onWithoutOffStartsOverAtTheNextOn() {
+        List<TimelineFragment.UsagePeriod> sessions = new ArrayList<>();
+        DatabaseHelper.ScreenEvent pending = TimelineFragment.pairUsagePeriods(Arrays.asList(
+                event(DatabaseHelper.EVENT_SCREEN_ON, 0),
+                event(DatabaseHelper.EVENT_SCREEN_ON, 10),
+                event(DatabaseHelper.EVENT_SCREEN_OFF, 20)), sessions);
+
+        // 丢失熄屏广播时前一个亮屏没有可信的结束时间，以后一个亮屏为准
+        assertNull(pending);
+        assertEquals(1, sessions.size());
+        assertSession(sessions.get(0), 10, 20, false);
+    }
+
+    @Test
+    public void trailingOnIsReturnedAndShownUntilTheLastEvent() {
+        List<DatabaseHelper.ScreenEvent> events = Arrays.asList(
+                event(DatabaseHelper.EVENT_SCREEN_ON, 0),
+                event(DatabaseHelper.EVENT_SCREEN_OFF, 10),
+                event(DatabaseHelper.EVENT_SCREEN_ON, 20),
+                event(DatabaseHelper.EVENT_USER_PRESENT, 25));
+        List<TimelineFragment.UsagePeriod> sessions = new ArrayList<>();
+        assertSame(events.get(2), TimelineFragment.pairUsagePeriods(events, sessions));
+        assertEquals(1, sessions.size());
+
+        List<TimelineFragment.UsagePeriod> periods = TimelineFragment.processEventsForTimeline(events);
+        assertEquals(3, periods.size());
+        assertSession(periods.get(0), 0, 10, false);
+        assertFalse(periods.get(1).isUsed);
+        assertEquals(at(10), periods.get(1).startTime);
+        assertEquals(at(20), periods.get(1).endTime);
+        assertSession(periods.get(2), 20, 25, true);
+    }
+
+    @Test
+    public void trailingOnWithoutUnlockIsShownLocked() {
+        // 之前时段的解锁不算在末尾未配对的亮屏上
+        List<TimelineFragment.UsagePeriod> periods = TimelineFragment.processEventsForTimeline(Arrays.asList(
+                event(DatabaseHelper.EVENT_SCREEN_ON, 0),
+                event(DatabaseHelper.EVENT_USER_PRESENT, 2),
+                event(DatabaseHelper.EVENT_SCREEN_OFF, 10),
+                event(DatabaseHelper.EVENT_SCREEN_ON, 20),
+                event(DatabaseHelper.EVENT_DOZE_ENTER, 25)));
+        assertEquals(3, periods.size());
+        assertSession(periods.get(0), 0, 10, true);
+        assertSession(periods.get(2), 20, 25, false);
+    }
+
+    @Test
+    public void offWithoutOnIsIgnored() {
+        List<TimelineFragment.UsagePeriod> sessions = new ArrayList<>();
+        DatabaseHelper.ScreenEvent pending = TimelineFragment.pairUsagePeriods(Arrays.asList(
+                event(DatabaseHelper.EVENT_SCREEN_OFF, 0),
+                event(DatabaseHelper.EVENT_SHUTDOWN, 5),
+                event(DatabaseHelper.EVENT_SCREEN_ON, 10),
+                event(DatabaseHelper.EVENT_SCREEN_OFF, 20),
+                event(DatabaseHelper.EVENT_SCREEN_OFF, 30)), sessions);
+
+        assertNull(pending);
+        assertEquals(1, sessions.size());
+        assertSession(sessions.get(0), 10, 20, false);
+    }
+
+    @Test
+    public void bootDropsTheSessionLeftOpenBeforeTheRestart() {
+        List<TimelineFragment.UsagePeriod> sessions = new ArrayList<>();
+        DatabaseHelper.ScreenEvent pending = TimelineFragment.pairUsagePeriods(Arrays.asList(
+                event(DatabaseHelper.EVENT_SCREEN_ON, 0),
+                event(DatabaseHelper.EVENT_USER_PRESENT, 1),
+                event(DatabaseHelper.EVENT_BOOT, 100),
+                event(DatabaseHelper.EVENT_SCREEN_OFF, 110),
+                event(DatabaseHelper.EVENT_SCREEN_ON, 120),
+                event(DatabaseHelper.EVENT_SCREEN_OFF, 130)), sessions);
+
+        // 重启前的解锁不会带到重启后的使用时段
+        assertNull(pending);
+        assertEquals(1, sessions.size());
+        assertSession(sessions.get(0), 120, 130, false);
+    }
+
+    @Test
+    public void shutdownEndsTheSession() {
+        List<TimelineFragment.UsagePeriod> sessions = new ArrayList<>();
+        DatabaseHelper.ScreenEvent pending = TimelineFragment.pairUsagePeriods(Arrays.asList(
+                event(DatabaseHelper.EVENT_SCREEN_ON, 0),
+                event(DatabaseHelper.EVENT_USER_PRESENT, 1),
+                event(DatabaseHelper.EVENT_SHUTDOWN, 10),
+                event(DatabaseHelper.EVENT_SCREEN_OFF, 12),
+                event(DatabaseHelper.EVENT_BOOT, 60)), sessions);
+
+        assertNull(pending);
+        assertEquals(1, sessions.size());
+        assertSession(sessions.get(0), 0, 10, true);
+    }
+
+    @Test
+    public void unlockBeforeTheOnDoesNotCount() {
+        List<TimelineFragment.UsagePeriod> sessions = new ArrayList<>();
+        TimelineFragment.pairUsagePeriods(Arrays.asList(
+                event(DatabaseHelper.EVENT_USER_PRESENT, 0),
+                event(DatabaseHelper.EVENT_SCREEN_ON, 1),
+                event(DatabaseHelper.EVENT_SCREEN_OFF, 2)), sessions);
+
+        assertEquals(1, sessions.size());
+        assertFalse(sessions.get(0).unlocked);
+    }
+
+    @Test
+    public void sameSecondEventsPairInRecordOrder() {
+        // 同一毫秒内的亮屏、熄屏、亮屏、熄屏按记录顺序配对成两个使用时段
+        List<TimelineFragment.UsagePeriod> sessions = new ArrayList<>();
+        DatabaseHelper.ScreenEvent pending = TimelineFragment.pairUsagePeriods(Arrays.asList(
+                event(DatabaseHelper.EVENT_SCREEN_ON, 5),
+                event(DatabaseHelper.EVENT_SCREEN_OFF, 5),
+                event(DatabaseHelper.EVENT_SCREEN_ON, 5),
+                event(DatabaseHelper.EVENT_USER_PRESENT, 5),
+                event(DatabaseHelper.EVENT_SCREEN_OFF, 5)), sessions);
+
+        assertNull(pending);
+        assertEquals(2, sessions.size());
+        assertSession(sessions.get(0), 5, 5, false);
+        assertSession(sessions.get(1), 5, 5, true);
+    }
+
+    @Test
+    public void sameSecondEventsUseTheMonotonicClock() {
+        // 墙上时间相同（秒级精度或调整过系统时间）时，时长由elapsedRealtime之差决定
+        DatabaseHelper.ScreenEvent on = event(DatabaseHelper.EVENT_SCREEN_ON, 5);
+        on.setElapsedRealtime(1000);
+        DatabaseHelper.ScreenEvent off = event(DatabaseHelper.EVENT_SCREEN_OFF, 5);
+        off.setElapsedRealtime(1450);
+        TimelineFragment.UsagePeriod session = TimelineFragment.createSession(on, off, false);
+        assertEquals(at(5), session.startTime);
+        assertEquals(at(5) + 450, session.endTime);
+
+        // 没有单调时钟且系统时间被往回调过时，不产生负时长
+        DatabaseHelper.ScreenEvent earlierOff = event(DatabaseHelper.EVENT_SCREEN_OFF, 3);
+        session = TimelineFragment.createSession(event(DatabaseHelper.EVENT_SCREEN_ON, 5), earlierOff, false);
+        assertEquals(session.startTime, session.endTime);
+    }
+
+    @Test
+    public void pairingStaysWithinBudget() {
+        List<DatabaseHelper.ScreenEvent> events = new ArrayList<>(BENCHMARK_EVENTS);
+        for (int i = 0; i < BENCHMARK_EVENTS / 4; i++) {
+            long second = i * 600L;
+            events.add(event(DatabaseHelper.EVENT_SCREEN_ON, second));
+            events.add(event(DatabaseHelper.EVENT_USER_PRESENT, second + 1));
+            events.add(event(DatabaseHelper.EVENT_SCREEN_OFF, second + 180));
+            events.add(event(DatabaseHelper.EVENT_DOZE_ENTER, second + 240));
+        }
+
+        // 预热JIT
+        for (int i = 0; i < 3; i++) {
+            TimelineFragment.pairUsagePeriods(events, new ArrayList<TimelineFragment.UsagePeriod>());
+        }
+
+        List<TimelineFragment.UsagePeriod> sessions = new ArrayList<>();
+        long allocatedBefore = Allocations.allocatedBytes();
+        long start = System.nanoTime();
+        assertNull(TimelineFragment.pairUsagePeriods(events, sessions));
+        long nanos = System.nanoTime() - start;
+        long allocated = Allocations.allocatedBytes() - allocatedBefore;
+
+        System.out.println("Paired " + BENCHMARK_EVENTS + " events: " + nanos / BENCHMARK_EVENTS + " ns/event, " +
+                (allocated >= 0 ? allocated / BENCHMARK_EVENTS + " bytes/event" : "allocation unknown"));
+        assertEquals(BENCHMARK_EVENTS / 4, sessions.size());
+        assertTrue("pairing took " + nanos / BENCHMARK_EVENTS + " ns/event",
+                nanos / BENCHMARK_EVENTS < NANOS_PER_EVENT_BUDGET);
+        if (allocated >= 0) {
+            // 只应分配使用时段对象和结果列表本身
+            assertTrue("allocated " + allocated / BENCHMARK_EVENTS + " bytes/event",
+                    allocated / BENCHMARK_EVENTS < ALLOCATION_PER_EVENT_BUDGET);
+        }
+    }
+
+    private static DatabaseHelper.ScreenEvent event(int eventType, long second) {
+        DatabaseHelper.ScreenEvent event = new DatabaseHelper.ScreenEvent();
+        event.setEventType(eventType);
+        event.setTime(at(second));
+        return event;
+    }
+
+    private static long at(long second) {
+        return BASE + second * SECOND;
+    }
+
+    private static void assertSession(TimelineFragment.UsagePeriod period, long startSecond, long endSecond,
+                                      boolean unlocked) {
+        assertNotNull(period);
+        assertTrue(period.isUsed);
+        assertEquals(at(startSecond), period.startTime);
+        assertEquals(at(endSecond), period.endTime);
+        assertEquals(unlocked, period.unlocked);
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.screenlogger;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 时间线视图的离屏绘制（Robolectric原生图形模式，绘制到Bitmap上的软件画布）。
+ * 软件画布走Picture录制分段的路径：第一帧录制可见分段，之后的帧只重放。
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class TimelineViewTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final long MINUTE = 60 * 1000L;
+    private static final long BASE = 1760832000000L;
+    // 三天的数据，每10分钟一个使用时段
+    private static final int PERIOD_COUNT = 3 * 24 * 6;
+
+    // 分段录制好之后每帧的耗时和测试线程内存分配上限：只重放录制好的分段，
+    // 整屏软件光栅化也要在120Hz屏幕的一帧（约8ms）内完成，每帧重新录制时会超出；
+    // 重放本身不应分配对象，内存分配上限只留给图形模式的少量开销
+    private static final int FRAME_COUNT = 200;
+    private static final long MILLIS_PER_FRAME_BUDGET = 8;
+    private static final long ALLOCATION_PER_FRAME_BUDGET = 4 * 1024;
+
+    private TimelineView view;
+    private Bitmap bitmap;
+    private Canvas canvas;
+
+    @Before
+    public void setUp() {
+        view = new TimelineView(RuntimeEnvironment.getApplication());
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, WIDTH, HEIGHT);
+        bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(bitmap);
+    }
+
+    @Test
+    public void drawsPeriodsOffscreen() {
+        // 只有一个使用时段时占满整个视图高度
+        List<TimelineView.UsagePeriod> periods = new ArrayList<>();
+        periods.add(new TimelineView.UsagePeriod(BASE, BASE + 10 * MINUTE, true));
+        view.setUsagePeriods(periods);
+        draw();
+
+        // 时段画在时间轴宽度（视图宽度的3/4）的中间
+        int color = bitmap.getPixel(WIDTH * 3 / 8, HEIGHT / 2);
+        assertTrue("period not drawn, pixel " + Integer.toHexString(color), Color.alpha(color) > 0);
+        assertEquals(Color.TRANSPARENT, bitmap.getPixel(WIDTH - 1, HEIGHT / 2));
+    }
+
+    @Test
+    public void emptyTimelineDrawsNothing() {
+        view.setUsagePeriods(new ArrayList<TimelineView.UsagePeriod>());
+        draw();
+        assertEquals(Color.TRANSPARENT, bitmap.getPixel(WIDTH * 3 / 8, HEIGHT / 2));
+    }
+
+    @Test
+    public void scrollingNearTheOldestNotifiesOnce() {
+        final int[] notified = {0};
+        view.setOnReachOldestListener(new TimelineView.OnReachOldestListener() {
+            @Override
+            public void onReachOldest() {
+                notified[0]++;
+            }
+        });
+        view.setUsagePeriods(periods());
+        assertEquals(0, notified[0]);
+
+        int range = view.computeVerticalScrollRange();
+        assertTrue(range > 3 * HEIGHT);
+        view.scrollTo(0, range - 2 * HEIGHT);
+        view.scrollTo(0, range - HEIGHT);
+        assertEquals(1, notified[0]);
+        draw();
+        assertFalse(bitmapIsBlank());
+    }
+
+    @Test
+    public void olderPeriodsKeepTheVisibleContentInPlace() {
+        view.setOnReachOldestListener(new TimelineView.OnReachOldestListener() {
+            @Override
+            public void onReachOldest() {
+            }
+        });
+        // 先显示后两天，再在底部追加第一天
+        List<TimelineView.UsagePeriod> all = periods();
+        int firstDay = all.size() / 3;
+        view.setUsagePeriods(new ArrayList<>(all.subList(firstDay, all.size())));
+        int range = view.computeVerticalScrollRange();
+        view.scrollTo(0, HEIGHT / 2);
+        draw();
+        Bitmap before = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+
+        view.addOlderPeriods(new ArrayList<>(all.subList(0, firstDay)));
+        // 每小时的高度不变：两天的内容加一天后高度为原来的1.5倍，滚动位置和可见内容不变
+        assertTrue("range " + range + " -> " + view.computeVerticalScrollRange(),
+                Math.abs(view.computeVerticalScrollRange() - range * 3 / 2) <= 1);
+        assertEquals(HEIGHT / 2, view.getScrollY());
+        draw();
+        assertTrue("visible content moved after adding older periods", bitmap.sameAs(before));
+    }
+
+    @Test
+    public void dayBoundaryLabelsShowTheDate() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2025, Calendar.OCTOBER, 19, 23, 30, 0);
+        long lateEvening = calendar.getTimeInMillis();
+
+        assertEquals("23:30", view.formatMark(lateEvening, lateEvening + 20 * MINUTE));
+        // 上方的标记已经是第二天，这是10月19日的第一个标记
+        assertEquals("10月19日 23:30", view.formatMark(lateEvening, lateEvening + 60 * MINUTE));
+        // 最上面的标记总是带日期
+        assertEquals("10月19日 23:30", view.formatMark(lateEvening, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void replayedFramesStayWithinBudget() {
+        view.setUsagePeriods(periods());
+        int maxScroll = view.computeVerticalScrollRange() - HEIGHT;
+        // 第一遍录制经过的所有分段
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            view.scrollTo(0, scrollForFrame(frame, maxScroll));
+            draw();
+        }
+
+        long allocatedBefore = Allocations.allocatedBytes();
+        long start = System.nanoTime();
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            view.scrollTo(0, scrollForFrame(frame, maxScroll));
+            draw();
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        long allocated = Allocations.allocatedBytes() - allocatedBefore;
+
+        System.out.println("Drew " + FRAME_COUNT + " frames of " + PERIOD_COUNT + " periods in " + millis + "ms, " +
+                (allocated >= 0 ? allocated / FRAME_COUNT + " bytes/frame allocated" : "allocation unknown"));
+        assertTrue("drawing took " + millis / FRAME_COUNT + "ms/frame", millis < MILLIS_PER_FRAME_BUDGET * FRAME_COUNT);
+        if (allocated >= 0) {
+            assertTrue("allocated " + allocated / FRAME_COUNT + " bytes/frame",
+                    allocated / FRAME_COUNT < ALLOCATION_PER_FRAME_BUDGET);
+        }
+    }
+
+    // 在内容中来回滚动
+    private static int scrollForFrame(int frame, int maxScroll) {
+        int step = maxScroll / (FRAME_COUNT / 2);
+        int position = frame * step;
+        return position <= maxScroll ? position : Math.max(0, 2 * maxScroll - position);
+    }
+
+    private void draw() {
+        bitmap.eraseColor(Color.TRANSPARENT);
+        // 与View.draw()相同，画布先按滚动位置平移
+        canvas.save();
+        canvas.translate(0, -view.getScrollY());
+        view.draw(canvas);
+        canvas.restore();
+    }
+
+    private boolean bitmapIsBlank() {
+        for (int y = 0; y < HEIGHT; y += 8) {
+            for (int x = 0; x < WIDTH; x += 8) {
+                if (bitmap.getPixel(x, y) != Color.TRANSPARENT) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static List<TimelineView.UsagePeriod> periods() {
+        List<TimelineView.UsagePeriod> periods = new ArrayList<>(PERIOD_COUNT * 2);
+        for (int i = 0; i < PERIOD_COUNT; i++) {
+            long start = BASE + i * 10 * MINUTE;
+            periods.add(new TimelineView.UsagePeriod(start, start + 3 * MINUTE, true, i % 3 != 0));
+            periods.add(new TimelineView.UsagePeriod(start + 3 * MINUTE, start + 10 * MINUTE, false));
+        }
+        return periods;
+    }
+}